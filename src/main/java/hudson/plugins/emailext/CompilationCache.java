@@ -0,0 +1,289 @@
+package hudson.plugins.emailext;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Bounded cache of compiled scripts and templates, keyed by where their source comes from and a digest of the source
+ * itself. When the source at a location changes it is compiled again and the entry of the old source is dropped.
+ * Concurrent requests for the same source wait for a single compilation.
+ * <p>
+ * The least recently used entries are evicted once there are more than {@code maxEntries} of them, or once their
+ * sources are longer than {@code maxWeight} characters in total.
+ *
+ * @param <V> the type of the compiled form
+ */
+@Restricted(NoExternalUse.class)
+public final class CompilationCache<V> {
+
+    private static final Map<String, CompilationCache<?>> CACHES = new ConcurrentSkipListMap<>();
+
+    /**
+     * Compiles a source on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Compiler<V, E extends Exception> {
+        V compile() throws E;
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ConcurrentMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> keysByLocation = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    CompilationCache(String name, int maxEntries, long maxWeight) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Creates a cache which is listed by {@link #all()}.
+     *
+     * @param name       the name of the cache, as shown on the global configuration page
+     * @param maxEntries the maximum number of entries, 0 to not cache anything
+     * @param maxWeight  the maximum total length of the cached sources
+     * @return the cache
+     */
+    public static <V> CompilationCache<V> create(String name, int maxEntries, long maxWeight) {
+        CompilationCache<V> cache = new CompilationCache<>(name, maxEntries, maxWeight);
+        CACHES.put(name, cache);
+        return cache;
+    }
+
+    /**
+     * @return the caches created by {@link #create(String, int, long)}, by name
+     */
+    public static Map<String, CompilationCache<?>> all() {
+        return Collections.unmodifiableMap(CACHES);
+    }
+
+    /**
+     * Returns the compiled form of a source, compiling it if it is not cached.
+     *
+     * @param location where the source comes from, e.g. the name of a template file
+     * @param source   the source
+     * @param compiler compiles the source on a cache miss
+     * @return the compiled form
+     * @throws E if the source does not compile; failures, like null results, are not cached
+     */
+    public <E extends Exception> V get(String location, String source, Compiler<V, E> compiler) throws E {
+        return get(location, source, true, compiler);
+    }
+
+    /**
+     * Returns the compiled form of a source which does not come from a particular location, e.g. a script entered in
+     * a job configuration, compiling it if it is not cached. Different sources in the same scope are cached side by
+     * side, so jobs with the same script share its compiled form.
+     *
+     * @param scope    what else the compiled form depends on, e.g. the classpath it was compiled with
+     * @param source   the source
+     * @param compiler compiles the source on a cache miss
+     * @return the compiled form
+     * @throws E if the source does not compile; failures, like null results, are not cached
+     */
+    public <E extends Exception> V getShared(String scope, String source, Compiler<V, E> compiler) throws E {
+        return get(scope, source, false, compiler);
+    }
+
+    private <E extends Exception> V get(String location, String source, boolean replace, Compiler<V, E> compiler)
+            throws E {
+        if (maxEntries <= 0) {
+            misses.incrementAndGet();
+            return compiler.compile();
+        }
+        String key = location + '@' + digest(source);
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            Entry<V> created = new Entry<>(replace ? location : null, source.length());
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+                String previous = replace ? keysByLocation.put(location, key) : null;
+                if (previous != null && !previous.equals(key) && remove(previous)) {
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+        entry.lastUsed = clock.incrementAndGet();
+        synchronized (entry) {
+            if (entry.value != null) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            misses.incrementAndGet();
+            boolean compiled = false;
+            try {
+                entry.value = compiler.compile();
+                compiled = entry.value != null;
+                if (compiled && !entry.removed) {
+                    entry.counted = true;
+                    weight.addAndGet(entry.weight);
+                }
+            } finally {
+                if (!compiled) {
+                    entries.remove(key, entry);
+                    if (replace) {
+                        keysByLocation.remove(location, key);
+                    }
+                }
+            }
+        }
+        evict();
+        return entry.value;
+    }
+
+    private boolean remove(String key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.location != null) {
+            keysByLocation.remove(entry.location, key);
+        }
+        synchronized (entry) {
+            entry.removed = true;
+            if (entry.counted) {
+                entry.counted = false;
+                weight.addAndGet(-entry.weight);
+            }
+        }
+        return true;
+    }
+
+    private synchronized void evict() {
+        while (!entries.isEmpty() && (entries.size() > maxEntries || weight.get() > maxWeight)) {
+            String eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry<V>> e : entries.entrySet()) {
+                if (e.getValue().lastUsed < eldestUse) {
+                    eldest = e.getKey();
+                    eldestUse = e.getValue().lastUsed;
+                }
+            }
+            if (eldest != null && remove(eldest)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all entries, e.g. because something the compiled forms depend on changed.
+     */
+    public void clear() {
+        for (String key : entries.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Drops the entry of a location, e.g. because its source was deleted.
+     */
+    public void invalidate(String location) {
+        String key = keysByLocation.get(location);
+        if (key != null && remove(key)) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the entries whose compiled form matches, e.g. because something it was compiled with was released.
+     */
+    public void invalidateIf(Predicate<? super V> predicate) {
+        for (Map.Entry<String, Entry<V>> e : entries.entrySet()) {
+            V value = e.getValue().value;
+            if (value != null && predicate.test(value) && remove(e.getKey())) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    static String digest(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the share of lookups which found a compiled form, between 0 and 1
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "%d cached, %d hits, %d misses (%.0f%% hit rate), %d evicted, %d invalidated"
+                .formatted(
+                        getSize(),
+                        getHits(),
+                        getMisses(),
+                        getHitRate() * 100,
+                        getEvictions(),
+                        getInvalidations());
+    }
+
+    private static final class Entry<V> {
+        /**
+         * The location whose source the entry was compiled from, null for shared entries.
+         */
+        private final String location;
+        private final long weight;
+        private volatile long lastUsed;
+        private volatile V value;
+        private boolean removed;
+        private boolean counted;
+
+        Entry(String location, long weight) {
+            this.location = location;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package hudson.plugins.emailext;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import jenkins.util.SystemProperties;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.Whitelist;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.groovy.GroovySandbox;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.ClassLoaderWhitelist;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.ProxyWhitelist;
+import org.jenkinsci.plugins.scriptsecurity.scripts.ClasspathEntry;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Compiled classes of the Groovy scripts run by email-ext, e.g. the pre-send and post-send scripts, script triggers
+ * and {@code ${SCRIPT}}, so that each run only has to instantiate the class with a new {@link Binding}.
+ */
+@Restricted(NoExternalUse.class)
+public final class CompiledScripts {
+
+    private static final CompilationCache<Class<? extends Script>> CLASSES = CompilationCache.create(
+            "Groovy scripts",
+            SystemProperties.getInteger(CompiledScripts.class.getName() + ".cacheSize", 500),
+            SystemProperties.getLong(CompiledScripts.class.getName() + ".cacheWeight", 10_000_000L));
+
+    private CompiledScripts() {}
+
+    /**
+     * Returns the class of a script, compiling it if necessary.
+     *
+     * @param script    the script
+     * @param loader    the class loader to compile the script with
+     * @param classpath identifies {@code loader} and its additional classpath, e.g. by the
+     *     {@link ExtendedEmailPublisherDescriptor.ScriptClassLoader#getScope() scope} of a cached loader; empty if
+     *     there is none
+     * @param sandbox   true if the script has to run in the sandbox, {@code cc} must then be a secure configuration
+     * @param cc        the compiler configuration
+     * @return the script class
+     */
+    public static Class<? extends Script> compile(
+            String script, ClassLoader loader, String classpath, boolean sandbox, CompilerConfiguration cc) {
+        String scope = (sandbox ? "sandboxed:" : "approved:") + cc.getScriptBaseClass() + ':' + classpath;
+        return CLASSES.getShared(
+                scope, script, () -> new GroovyShell(loader, new Binding(), cc)
+                        .parse(script)
+                        .getClass());
+    }
+
+    /**
+     * Identifies a classpath, so that scripts compiled against it can be reused while neither the entries nor the
+     * files they point to change.
+     *
+     * @param classpathList the classpath entries
+     * @return the fingerprint, empty if there are no entries
+     */
+    public static String getClasspathFingerprint(List<ClasspathEntry> classpathList) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (ClasspathEntry entry : classpathList) {
+            URL url = entry.getURL();
+            fingerprint.append(url);
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    fingerprint.append('@').append(new File(url.toURI()).lastModified());
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    // not a plain file, identified by its URL only
+                }
+            }
+            fingerprint.append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Runs a script as is.
+     */
+    public static Object run(Class<? extends Script> type, Binding binding) {
+        return InvokerHelper.createScript(type, binding).run();
+    }
+
+    /**
+     * Runs a script compiled for the sandbox, like {@link GroovySandbox#runScript(GroovyShell, String)} does.
+     *
+     * @param whitelist what the script may access, besides the classes it defines itself
+     */
+    public static Object runInSandbox(Class<? extends Script> type, Binding binding, Whitelist whitelist) {
+        // classes defined by the script are loaded by an inner loader of the shell's class loader
+        ClassLoader loader = type.getClassLoader();
+        if (loader instanceof GroovyClassLoader.InnerLoader) {
+            loader = loader.getParent();
+        }
+        try (GroovySandbox.Scope scope = new GroovySandbox()
+                .withWhitelist(new ProxyWhitelist(new ClassLoaderWhitelist(loader), whitelist))
+                .enter()) {
+            return InvokerHelper.createScript(type, binding).run();
+        }
+    }
+
+    /**
+     * Forgets the scripts compiled with a class loader, e.g. because it is closed.
+     *
+     * @param loader the class loader passed to {@link #compile}
+     */
+    public static void invalidate(ClassLoader loader) {
+        CLASSES.invalidateIf(type -> {
+            for (ClassLoader l = type.getClassLoader(); l != null; l = l.getParent()) {
+                if (l == loader) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Forgets the compiled scripts, e.g. because the classpath they were compiled with changed.
+     */
+    public static void clear() {
+        CLASSES.clear();
+    }
+}
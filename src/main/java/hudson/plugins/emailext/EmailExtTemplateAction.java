@@ -1,6 +1,5 @@
 package hudson.plugins.emailext;
 
-import hudson.ExtensionList;
 import hudson.FilePath;
 import hudson.Plugin;
 import hudson.model.AbstractBuild;
@@ -16,13 +15,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
-import org.jenkinsci.lib.configprovider.model.Config;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
@@ -104,13 +101,11 @@ public class EmailExtTemplateAction implements Action {
     private FormValidation checkForManagedFile(final String value) {
         Plugin plugin = Jenkins.get().getPlugin("config-file-provider");
         if (plugin != null) {
-            Config config = null;
-            Collection<ConfigProvider> providers = getTemplateConfigProviders();
-            for (ConfigProvider provider : providers) {
-                for (Config c : provider.getAllConfigs()) {
-                    if (c.name.equalsIgnoreCase(value)) {
-                        return FormValidation.ok();
-                    }
+            for (Class<? extends ConfigProvider> provider : List.of(
+                    GroovyTemplateConfig.GroovyTemplateConfigProvider.class,
+                    JellyTemplateConfig.JellyTemplateConfigProvider.class)) {
+                if (ManagedTemplates.find(project.getParent(), provider, value) != null) {
+                    return FormValidation.ok();
                 }
             }
         } else {
@@ -119,21 +114,6 @@ public class EmailExtTemplateAction implements Action {
         return FormValidation.error(Messages.EmailExtTemplateAction_ManagedTemplateNotFound());
     }
 
-    private static Collection<ConfigProvider> getTemplateConfigProviders() {
-        Collection<ConfigProvider> providers = new ArrayList<>();
-        ExtensionList<ConfigProvider> all = ConfigProvider.all();
-        ConfigProvider p = all.get(GroovyTemplateConfig.GroovyTemplateConfigProvider.class);
-        if (p != null) {
-            providers.add(p);
-        }
-
-        p = all.get(JellyTemplateConfig.JellyTemplateConfigProvider.class);
-        if (p != null) {
-            providers.add(p);
-        }
-        return providers;
-    }
-
     @RequirePOST
     public void doRenderTemplate(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
         if (Jenkins.get()
@@ -1,38 +1,38 @@
 package hudson.plugins.emailext;
 
+/**
+ * Global limit for the emails of triggers which do not bypass throttling: up to {@link #THROTTLING_LIMIT} emails at
+ * once, refilled at {@link #THROTTLING_LIMIT} emails per hour. Emails over the limit are deferred, not dropped.
+ *
+ * @see RateLimiter
+ */
 public class EmailThrottler {
     public static final int THROTTLING_LIMIT = 100; // Set your limit
-    private static EmailThrottler instance;
-    private int emailCount;
-    private long lastResetTime;
-    private static final long THROTTLING_PERIOD = 60 * 60 * 1000 * 1000000L; // Set your period (in nanoseconds)
+    private static final long THROTTLING_PERIOD_SECONDS = 60 * 60; // Set your period
+    private static final EmailThrottler INSTANCE = new EmailThrottler();
+    private final RateLimiter limiter;
 
     public EmailThrottler() {
-        this.emailCount = 0;
-        this.lastResetTime = System.nanoTime();
+        this.limiter = new RateLimiter(THROTTLING_LIMIT, (double) THROTTLING_LIMIT / THROTTLING_PERIOD_SECONDS);
     }
 
-    public static synchronized EmailThrottler getInstance() {
-        if (instance == null) {
-            instance = new EmailThrottler();
-        }
-        return instance;
+    public static EmailThrottler getInstance() {
+        return INSTANCE;
     }
 
-    public synchronized boolean isThrottlingLimitExceeded() {
-        long currentTime = System.nanoTime();
-        if (currentTime - lastResetTime > THROTTLING_PERIOD) {
-            resetEmailCount();
-        }
-        return emailCount >= THROTTLING_LIMIT;
+    public boolean isThrottlingLimitExceeded() {
+        return limiter.getAvailable() <= 0;
     }
 
-    public synchronized void incrementEmailCount() {
-        emailCount++;
+    public void incrementEmailCount() {
+        limiter.consume();
     }
 
-    public synchronized void resetEmailCount() {
-        emailCount = 0;
-        lastResetTime = System.nanoTime();
+    public void resetEmailCount() {
+        limiter.reset();
+    }
+
+    RateLimiter getLimiter() {
+        return limiter;
     }
 }
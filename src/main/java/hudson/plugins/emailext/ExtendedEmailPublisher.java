@@ -8,7 +8,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
-import groovy.lang.GroovyShell;
+import groovy.lang.Script;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Functions;
@@ -34,6 +34,8 @@ import hudson.plugins.emailext.plugins.ContentBuilder;
 import hudson.plugins.emailext.plugins.CssInliner;
 import hudson.plugins.emailext.plugins.EmailTrigger;
 import hudson.plugins.emailext.plugins.EmailTriggerDescriptor;
+import hudson.plugins.emailext.plugins.HtmlMinifier;
+import hudson.plugins.emailext.plugins.HtmlPipeline;
 import hudson.plugins.emailext.plugins.RecipientProvider;
 import hudson.plugins.emailext.plugins.content.AbstractEvalContent;
 import hudson.plugins.emailext.plugins.content.EmailExtScript;
@@ -44,11 +46,13 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.MailMessageIdAction;
 import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
+import hudson.util.LogTaskListener;
 import jakarta.mail.Address;
 import jakarta.mail.AuthenticationFailedException;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Multipart;
+import jakarta.mail.NoSuchProviderException;
 import jakarta.mail.SendFailedException;
 import jakarta.mail.Session;
 import jakarta.mail.Transport;
@@ -64,23 +68,25 @@ import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.ConnectException;
 import java.net.MalformedURLException;
-import java.net.SocketException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.ImportCustomizer;
@@ -622,6 +628,10 @@ public class ExtendedEmailPublisher extends Notifier {
             return true;
         }
 
+        // build all the emails first, then send them together
+        MailBatch batch =
+                new MailBatch(getDescriptor().isTransportPoolingEnabled() ? SmtpTransportPool.get() : null);
+        RenderCache renderCache = new RenderCache();
         for (String triggerName : triggered.keySet()) {
             for (EmailTrigger trigger : triggered.get(triggerName)) {
                 listener.getLogger().println("Sending email for trigger: " + triggerName);
@@ -629,20 +639,47 @@ public class ExtendedEmailPublisher extends Notifier {
                         new ExtendedEmailPublisherContext(this, build, build.getWorkspace(), launcher, listener);
                 context.setTriggered(triggered);
                 context.setTrigger(trigger);
+                context.setBatch(batch);
+                context.setRenderCache(renderCache);
                 sendMail(context);
             }
         }
+        sendBatch(batch);
 
         return true;
     }
 
+    /**
+     * Sends the emails of a batch, sharing one connection between the emails sent through the same account.
+     */
+    private void sendBatch(MailBatch batch) {
+        try (batch) {
+            for (MailBatch.Item item : batch.getItems()) {
+                ExtendedEmailPublisherContext context = item.context();
+                try {
+                    deliver(context, item.account(), item.session(), item.msg(), item.delivery());
+                } catch (MessagingException e) {
+                    LOGGER.log(Level.WARNING, "SMTP communication error while sending email.", e);
+                    Functions.printStackTrace(
+                            e, context.getListener().error("SMTP communication error while sending email."));
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Unexpected error while sending email.", e);
+                    Functions.printStackTrace(e, context.getListener().error("Unexpected error while sending email."));
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Interrupted while sending emails", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Checks if an exception represents a transient SMTP error (4xx code) that should be retried.
      *
      * @param e the exception to check
      * @return true if the exception represents a transient SMTP error (4xx code), false otherwise
      */
-    boolean isTransientSmtpError(Exception e) {
+    static boolean isTransientSmtpError(Exception e) {
         if (e == null) {
             return false;
         }
@@ -680,7 +717,7 @@ public class ExtendedEmailPublisher extends Notifier {
      * @param e the exception
      * @return the SMTP return code, or null if not available
      */
-    private Integer getSmtpReturnCode(Exception e) {
+    private static Integer getSmtpReturnCode(Exception e) {
         if (e == null) {
             return null;
         }
@@ -703,7 +740,7 @@ public class ExtendedEmailPublisher extends Notifier {
      * @param e the exception
      * @return the SMTP error code, or null if not found
      */
-    private Integer parseSmtpErrorCode(Exception e) {
+    private static Integer parseSmtpErrorCode(Exception e) {
         if (e == null || e.getMessage() == null) {
             return null;
         }
@@ -719,6 +756,52 @@ public class ExtendedEmailPublisher extends Notifier {
         return null;
     }
 
+    /**
+     * Finds the SMTP reply code of an exception or of the first exception in its chain that has one.
+     *
+     * @param e the exception
+     * @return the SMTP reply code, or null if not found
+     */
+    static Integer getSmtpErrorCode(Exception e) {
+        if (e == null) {
+            return null;
+        }
+        Integer code = getSmtpReturnCode(e);
+        if (code == null) {
+            code = parseSmtpErrorCode(e);
+        }
+        if (code == null && e instanceof MessagingException messagingException) {
+            code = getSmtpErrorCode(messagingException.getNextException());
+        }
+        if (code == null && e.getCause() instanceof Exception cause && cause != e) {
+            code = getSmtpErrorCode(cause);
+        }
+        return code;
+    }
+
+    /**
+     * Checks if an exception means that the SMTP server could not be reached or is shutting down, rather than that it
+     * rejected a particular message.
+     *
+     * @param e the exception to check
+     * @return true if the server is unavailable
+     */
+    static boolean isServerUnavailable(Exception e) {
+        Integer code = getSmtpErrorCode(e);
+        if (code != null) {
+            return code == 421;
+        }
+        // MessagingException.getCause() returns the next exception
+        Throwable t = e;
+        while (t != null) {
+            if (t instanceof IOException) {
+                return true;
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
     @SuppressFBWarnings("REC_CATCH_EXCEPTION")
     boolean sendMail(ExtendedEmailPublisherContext context) {
         try {
@@ -762,15 +845,8 @@ public class ExtendedEmailPublisher extends Notifier {
             }
             MimeMessage msg = createMail(context, fromAddress, session);
             debug(context.getListener().getLogger(), "Successfully created MimeMessage");
-            if (getDescriptor().isThrottlingEnabled()
-                    && EmailThrottler.getInstance().isThrottlingLimitExceeded()
-                    && !context.getTrigger().shouldBypassThrottling()) {
-                context.getListener().getLogger().println("Could not send email. Throttling limit exceeded.");
-                return false;
-            }
 
             Address[] allRecipients = msg.getAllRecipients();
-            int retries = 0;
             if (executePresendScript(context, msg)) {
                 // presend script might have modified recipients:
                 allRecipients = msg.getAllRecipients();
@@ -791,115 +867,42 @@ public class ExtendedEmailPublisher extends Notifier {
                     }
                     context.getListener().getLogger().println(buf);
 
-                    // emergency reroute might have modified recipients:
-                    allRecipients = msg.getAllRecipients();
-                    // all email addresses are of type "rfc822", so just take first one:
-                    Transport transport = session.getTransport(allRecipients[0]);
-                    while (true) {
+                    MailDeliveryAction.Delivery delivery = new MailDeliveryAction.Delivery(
+                            getTriggerName(context), msg.getAllRecipients().length);
+                    if (getDescriptor().isOutboxEnabled()) {
+                        // assigns the Message-ID, which the outbox would otherwise do when storing the message
+                        msg.saveChanges();
+                        String key = MailOutbox.key(
+                                context.getRun(), delivery.getTrigger(), msg.getAllRecipients(), msg.getMessageID());
                         try {
-                            transport.connect();
-                            transport.sendMessage(msg, allRecipients);
-                            if (getDescriptor().isThrottlingEnabled()) {
-                                EmailThrottler.getInstance().incrementEmailCount();
-                            }
-                            break;
-                        } catch (SendFailedException e) {
-                            boolean isTransient = isTransientSmtpError(e);
-                            if ((e.getNextException() != null
-                                            && (e.getNextException() instanceof SocketException
-                                                    || e.getNextException() instanceof ConnectException))
-                                    || isTransient) {
-                                String reason = isTransient ? "Transient SMTP error" : "Socket error";
-                                context.getListener()
-                                        .getLogger()
-                                        .println(reason + " sending email, retrying once more in 10 seconds...");
-                                transport.close();
-                                Thread.sleep(10000);
-                            } else {
-                                Address[] addresses = e.getValidSentAddresses();
-                                if (addresses != null && addresses.length > 0) {
-                                    buf = new StringBuilder("Successfully sent to the following addresses:");
-                                    for (Address a : addresses) {
-                                        buf.append(' ').append(a);
-                                    }
-                                    context.getListener().getLogger().println(buf);
-                                }
-                                addresses = e.getValidUnsentAddresses();
-                                if (addresses != null && addresses.length > 0) {
-                                    buf = new StringBuilder("Not sent to the following valid addresses:");
-                                    for (Address a : addresses) {
-                                        buf.append(' ').append(a);
-                                    }
-                                    context.getListener().getLogger().println(buf);
-                                }
-                                addresses = e.getInvalidAddresses();
-                                if (addresses != null && addresses.length > 0) {
-                                    buf = new StringBuilder("Could not be sent to the following addresses:");
-                                    for (Address a : addresses) {
-                                        buf.append(' ').append(a);
-                                    }
-                                    context.getListener().getLogger().println(buf);
-                                }
-
-                                debug(
-                                        context.getListener().getLogger(),
-                                        e.getClass().getSimpleName() + " message: " + e.getMessage());
-                                Exception next = e.getNextException();
-                                while (next != null) {
-                                    debug(
-                                            context.getListener().getLogger(),
-                                            "Next " + next.getClass().getSimpleName() + " message: "
-                                                    + next.getMessage());
-                                    if (next instanceof MessagingException exception) {
-                                        next = exception.getNextException();
-                                    } else {
-                                        next = null;
-                                    }
-                                }
-                                break;
-                            }
-                        } catch (MessagingException e) {
-                            boolean isTransient = isTransientSmtpError(e);
-                            if ((e.getNextException() != null && e.getNextException() instanceof ConnectException)
-                                    || isTransient) {
-                                String reason = isTransient ? "Transient SMTP error" : "Connection error";
-                                context.getListener()
-                                        .getLogger()
-                                        .println(reason + " sending email, retrying once more in 10 seconds...");
-                                transport.close();
-                                Thread.sleep(10000);
-                            } else {
-                                debug(
-                                        context.getListener().getLogger(),
-                                        e.getClass().getSimpleName() + " message: " + e.getMessage());
-                                Exception next = e.getNextException();
-                                while (next != null) {
-                                    debug(
-                                            context.getListener().getLogger(),
-                                            "Next " + next.getClass().getSimpleName() + " message: "
-                                                    + next.getMessage());
-                                    if (next instanceof MessagingException exception) {
-                                        next = exception.getNextException();
-                                    } else {
-                                        next = null;
-                                    }
-                                }
-                                break;
-                            }
+                            MailOutbox.get().enqueue(key, context.getRun(), mailAccount, msg);
+                            delivery.setOutboxKey(key);
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Failed to store email " + key + " in the outbox", e);
                         }
-                        retries++;
-                        if (retries > 1) {
-                            context.getListener().getLogger().println("Failed after second try sending email");
-                            break;
+                    }
+                    long delay = reserveRateLimit(context, mailAccount);
+                    if (delay > 0) {
+                        context.getListener()
+                                .getLogger()
+                                .println("Rate limit reached, email deferred by "
+                                        + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds");
+                        MailDeliveryAction.of(context.getRun()).add(delivery);
+                        scheduleDelivery(detach(context), mailAccount, session, msg, delivery, delay);
+                        return true;
+                    }
+                    if (getDescriptor().isAsyncDeliveryEnabled()) {
+                        MailDeliveryAction.of(context.getRun()).add(delivery);
+                        if (enqueue(context, mailAccount, session, msg, delivery)) {
+                            context.getListener().getLogger().println("Email queued for delivery");
+                            return true;
                         }
+                        context.getListener().getLogger().println("Email delivery queue is full, sending now");
                     }
-
-                    executePostsendScript(context, msg, session, transport);
-                    // close transport after post-send script, so server response can be accessed:
-                    transport.close();
-
-                    if (context.getRun().getAction(MailMessageIdAction.class) == null) {
-                        context.getRun().addAction(new MailMessageIdAction(msg.getMessageID()));
+                    if (context.getBatch() != null) {
+                        context.getBatch().add(context, mailAccount, session, msg, delivery);
+                    } else {
+                        deliver(context, mailAccount, session, msg, delivery);
                     }
                 } else {
                     context.getListener()
@@ -930,20 +933,428 @@ public class ExtendedEmailPublisher extends Notifier {
         return false;
     }
 
+    /**
+     * Takes a token from the rate limiter of the account and, if throttling is enabled, from the global limiter.
+     * Triggers which bypass throttling are only subject to the limit of the account.
+     *
+     * @return how long the message has to be deferred, zero if it can be sent now. Unit: milliseconds
+     */
+    private long reserveRateLimit(ExtendedEmailPublisherContext context, MailAccount mailAccount) {
+        long delay = 0;
+        RateLimiter accountLimiter = RateLimiter.forAccount(mailAccount);
+        if (accountLimiter != null) {
+            delay = accountLimiter.reserve();
+        }
+        if (getDescriptor().isThrottlingEnabled()) {
+            RateLimiter throttle = EmailThrottler.getInstance().getLimiter();
+            if (context.getTrigger().shouldBypassThrottling()) {
+                throttle.consume();
+            } else {
+                delay = Math.max(delay, throttle.reserve());
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Hands a fully built message to the {@link MailDeliveryQueue}. The build log may already be closed when the
+     * message is delivered, so the worker logs to the system log and records the outcome in the
+     * {@link MailDeliveryAction} of the build.
+     *
+     * @return false if the queue is full and the message has to be delivered by the caller
+     */
+    private boolean enqueue(
+            ExtendedEmailPublisherContext context,
+            MailAccount mailAccount,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery) {
+        return MailDeliveryQueue.get().submit(deliveryTask(detach(context), mailAccount, session, msg, delivery));
+    }
+
+    /**
+     * Copies a context for use after the build finished, logging to the system log instead of the build log.
+     */
+    private ExtendedEmailPublisherContext detach(ExtendedEmailPublisherContext context) {
+        if (context.getListener() instanceof LogTaskListener) {
+            return context;
+        }
+        ExtendedEmailPublisherContext detached = new ExtendedEmailPublisherContext(
+                this,
+                context.getRun(),
+                context.getWorkspace(),
+                context.getLauncher(),
+                new LogTaskListener(LOGGER, Level.INFO));
+        detached.setTrigger(context.getTrigger());
+        detached.setTriggered(context.getTriggered());
+        return detached;
+    }
+
+    private Runnable deliveryTask(
+            ExtendedEmailPublisherContext detached,
+            MailAccount mailAccount,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery) {
+        Run<?, ?> run = detached.getRun();
+        return () -> {
+            try {
+                deliver(detached, mailAccount, session, msg, delivery);
+            } catch (InterruptedException e) {
+                delivery.failed("Interrupted");
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Unexpected error while sending email for " + run, e);
+                delivery.failed(e.getMessage());
+            }
+            LOGGER.log(Level.INFO, "{0}: {1}", new Object[] {run, delivery});
+            try {
+                run.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save email delivery status of " + run, e);
+            }
+        };
+    }
+
+    /**
+     * Schedules a delivery on the {@link MailDeliveryQueue}. If too many emails are waiting already, the delivery
+     * fails; an email stored in the {@link MailOutbox} is still sent after the next restart.
+     */
+    private void scheduleDelivery(
+            ExtendedEmailPublisherContext detached,
+            MailAccount mailAccount,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery,
+            long delayMillis) {
+        Run<?, ?> run = detached.getRun();
+        MailDeliveryQueue.get()
+                .schedule(deliveryTask(detached, mailAccount, session, msg, delivery), delayMillis, () -> {
+                    delivery.failed("Email delivery queue is full");
+                    // may run on the scheduler thread, which must not wait for the disk
+                    Timer.get().execute(() -> {
+                        LOGGER.log(Level.WARNING, "{0}: {1}", new Object[] {run, delivery});
+                        try {
+                            run.save();
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Failed to save email delivery status of " + run, e);
+                        }
+                    });
+                });
+    }
+
+    /**
+     * Makes one attempt to send a fully built message. Connection errors and transient SMTP errors are retried
+     * according to the {@link SmtpRetryPolicy}: the next attempt is scheduled by the {@link MailDeliveryQueue}, so
+     * the calling thread does not wait for it. If other additional accounts send for the same address, the message
+     * fails over to one of them first. Once the message is sent, or can not be sent, the post-send script runs.
+     *
+     * @param context     the email context
+     * @param mailAccount the account to send the message from
+     * @param session     the session created for the account
+     * @param msg         the message, after the pre-send script ran
+     * @param delivery    receives the outcome of the delivery
+     */
+    void deliver(
+            ExtendedEmailPublisherContext context,
+            MailAccount mailAccount,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery)
+            throws MessagingException, InterruptedException {
+        // emergency reroute might have modified recipients, and after a partial failure only some are left:
+        Address[] allRecipients = delivery.getEnvelope() != null ? delivery.getEnvelope() : msg.getAllRecipients();
+        MailBatch batch = context.getBatch();
+        SmtpTransportPool pool = getDescriptor().isTransportPoolingEnabled() ? SmtpTransportPool.get() : null;
+        SmtpCircuitBreaker breaker = SmtpCircuitBreaker.get();
+        String host = SmtpCircuitBreaker.key(mailAccount);
+        Transport transport = null;
+        boolean sent = false;
+        String error = null;
+        delivery.attempted();
+        delivery.throughRelay(SmtpTransportPool.key(mailAccount));
+        long unavailable = breaker.checkAvailable(host);
+        if (unavailable > 0) {
+            // do not wait for the connection timeout of a server which is known to be down
+            MessagingException e = new MessagingException("SMTP server " + host + " is unavailable");
+            error = e.getMessage();
+            if (scheduleRetry(context, mailAccount, session, msg, delivery, e, "Server unavailable", unavailable)) {
+                return;
+            }
+        } else {
+            RelayGroup.started(mailAccount);
+            try {
+                if (batch != null) {
+                    transport = batch.borrow(mailAccount, session, allRecipients[0]);
+                } else if (pool != null) {
+                    transport = pool.borrow(mailAccount, session, allRecipients[0]);
+                } else {
+                    // all email addresses are of type "rfc822", so just take first one:
+                    transport = session.getTransport(allRecipients[0]);
+                    transport.connect();
+                }
+                int chunkSize = mailAccount.getRecipientChunkSize();
+                if (chunkSize > 0 && allRecipients.length > chunkSize) {
+                    sendInChunks(pool, mailAccount, session, transport, msg, allRecipients, chunkSize, delivery);
+                } else {
+                    transport.sendMessage(msg, allRecipients);
+                }
+                sent = true;
+                breaker.recordSuccess(host);
+            } catch (SendFailedException e) {
+                error = e.getMessage();
+                boolean isTransient = isTransientSmtpError(e);
+                if (isServerUnavailable(e)) {
+                    breaker.recordFailure(host);
+                } else {
+                    breaker.recordSuccess(host);
+                }
+                if (SmtpRetryPolicy.isRetryable(e)) {
+                    String reason = isTransient ? "Transient SMTP error" : "Connection error";
+                    if (scheduleRetry(context, mailAccount, session, msg, delivery, e, reason, 0)) {
+                        closeTransport(batch, pool, transport, false);
+                        return;
+                    }
+                } else {
+                    logSendFailure(context, e);
+                }
+            } catch (MessagingException e) {
+                error = e.getMessage();
+                boolean isTransient = isTransientSmtpError(e);
+                if (isServerUnavailable(e)) {
+                    breaker.recordFailure(host);
+                } else {
+                    breaker.recordSuccess(host);
+                }
+                if (SmtpRetryPolicy.isRetryable(e)) {
+                    String reason = isTransient ? "Transient SMTP error" : "Connection error";
+                    if (scheduleRetry(context, mailAccount, session, msg, delivery, e, reason, 0)) {
+                        closeTransport(batch, pool, transport, false);
+                        return;
+                    }
+                } else {
+                    logExceptionChain(context, e);
+                }
+            } finally {
+                RelayGroup.finished(mailAccount);
+            }
+        }
+
+        // without a connection, e.g. because the server is unavailable, the script still gets a transport to inspect:
+        executePostsendScript(
+                context, msg, session, transport != null ? transport : unconnectedTransport(session, allRecipients[0]));
+        // close transport after post-send script, so server response can be accessed:
+        closeTransport(batch, pool, transport, sent);
+
+        if (sent) {
+            delivery.sent(msg.getMessageID());
+        } else {
+            delivery.failed(error);
+        }
+        if (delivery.getOutboxKey() != null) {
+            try {
+                MailOutbox.get().commit(delivery.getOutboxKey());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to commit email " + delivery.getOutboxKey() + " in the outbox", e);
+            }
+        }
+        if (context.getRun().getAction(MailMessageIdAction.class) == null) {
+            context.getRun().addAction(new MailMessageIdAction(msg.getMessageID()));
+        }
+    }
+
+    /**
+     * Sends a message to its recipients in chunks. The first chunk goes over the given transport, the others over
+     * transports of their own. If some chunks fail, only their recipients are left for the next attempt.
+     */
+    private static void sendInChunks(
+            SmtpTransportPool pool,
+            MailAccount mailAccount,
+            Session session,
+            Transport transport,
+            MimeMessage msg,
+            Address[] recipients,
+            int chunkSize,
+            MailDeliveryAction.Delivery delivery)
+            throws MessagingException, InterruptedException {
+        try {
+            RecipientChunker.send(recipients, chunkSize, (chunk, index) -> {
+                if (index == 0) {
+                    transport.sendMessage(msg, chunk);
+                    return;
+                }
+                Transport chunkTransport;
+                if (pool != null) {
+                    chunkTransport = pool.borrow(mailAccount, session, chunk[0]);
+                } else {
+                    chunkTransport = session.getTransport(chunk[0]);
+                    chunkTransport.connect();
+                }
+                boolean sent = false;
+                try {
+                    chunkTransport.sendMessage(msg, chunk);
+                    sent = true;
+                } finally {
+                    closeTransport(null, pool, chunkTransport, sent);
+                }
+            });
+        } catch (SendFailedException e) {
+            if (e.getValidSentAddresses().length > 0) {
+                delivery.setEnvelope(e.getValidUnsentAddresses());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Schedules the next attempt to send a message after a retryable error. If another relay sends for the same
+     * address and was not tried yet, the next attempt goes through it right away.
+     *
+     * @param minDelay the earliest time for the next attempt, e.g. because the server is known to be down. Unit:
+     *     milliseconds
+     * @return false if the {@link SmtpRetryPolicy} gives up on the message
+     */
+    private boolean scheduleRetry(
+            ExtendedEmailPublisherContext context,
+            MailAccount mailAccount,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery,
+            MessagingException e,
+            String reason,
+            long minDelay) {
+        for (MailAccount relay : RelayGroup.alternatives(getDescriptor().getAddAccounts(), mailAccount)) {
+            if (!delivery.throughRelay(SmtpTransportPool.key(relay))) {
+                continue;
+            }
+            context.getListener()
+                    .getLogger()
+                    .println(reason + " sending email, failing over to " + relay.getSmtpHost());
+            debug(context.getListener().getLogger(), e.getClass().getSimpleName() + " message: " + e.getMessage());
+            delivery.retrying(e.getMessage());
+            MailDeliveryAction.of(context.getRun()).add(delivery);
+            Session relaySession = getDescriptor().createSession(relay, context);
+            scheduleDelivery(detach(context), relay, relaySession, msg, delivery, 0);
+            return true;
+        }
+        long delay = SmtpRetryPolicy.get()
+                .nextDelay(delivery.getAttempts(), delivery.getElapsedMillis(), getSmtpErrorCode(e));
+        if (delay >= 0) {
+            delay = Math.max(delay, minDelay);
+        }
+        if (delay < 0) {
+            context.getListener()
+                    .getLogger()
+                    .println(reason + " sending email, giving up after " + delivery.getAttempts() + " attempts");
+            return false;
+        }
+        context.getListener()
+                .getLogger()
+                .println(reason + " sending email, retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay)
+                        + " seconds...");
+        debug(context.getListener().getLogger(), e.getClass().getSimpleName() + " message: " + e.getMessage());
+        delivery.retrying(e.getMessage());
+        // the build may be over by the time the message is sent, so record the outcome on the build
+        MailDeliveryAction.of(context.getRun()).add(delivery);
+        scheduleDelivery(detach(context), mailAccount, session, msg, delivery, delay);
+        return true;
+    }
+
+    private void logSendFailure(ExtendedEmailPublisherContext context, SendFailedException e) {
+        StringBuilder buf;
+        Address[] addresses = e.getValidSentAddresses();
+        if (addresses != null && addresses.length > 0) {
+            buf = new StringBuilder("Successfully sent to the following addresses:");
+            for (Address a : addresses) {
+                buf.append(' ').append(a);
+            }
+            context.getListener().getLogger().println(buf);
+        }
+        addresses = e.getValidUnsentAddresses();
+        if (addresses != null && addresses.length > 0) {
+            buf = new StringBuilder("Not sent to the following valid addresses:");
+            for (Address a : addresses) {
+                buf.append(' ').append(a);
+            }
+            context.getListener().getLogger().println(buf);
+        }
+        addresses = e.getInvalidAddresses();
+        if (addresses != null && addresses.length > 0) {
+            buf = new StringBuilder("Could not be sent to the following addresses:");
+            for (Address a : addresses) {
+                buf.append(' ').append(a);
+            }
+            context.getListener().getLogger().println(buf);
+        }
+        logExceptionChain(context, e);
+    }
+
+    private void logExceptionChain(ExtendedEmailPublisherContext context, MessagingException e) {
+        debug(context.getListener().getLogger(), e.getClass().getSimpleName() + " message: " + e.getMessage());
+        Exception next = e.getNextException();
+        while (next != null) {
+            debug(
+                    context.getListener().getLogger(),
+                    "Next " + next.getClass().getSimpleName() + " message: " + next.getMessage());
+            if (next instanceof MessagingException exception) {
+                next = exception.getNextException();
+            } else {
+                next = null;
+            }
+        }
+    }
+
+    /**
+     * @return a transport for the address which is not connected, null if the session has none
+     */
+    private static Transport unconnectedTransport(Session session, Address address) {
+        try {
+            return session.getTransport(address);
+        } catch (NoSuchProviderException e) {
+            LOGGER.log(Level.FINE, "No transport for " + address, e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes a transport, or hands it back to the pool if one is in use.
+     *
+     * @param pool      the transport pool, or null if pooling is disabled
+     * @param transport the transport to close, may be null if it could not be opened
+     * @param reusable  true if the transport can be reused for another message
+     */
+    private static void closeTransport(MailBatch batch, SmtpTransportPool pool, Transport transport, boolean reusable)
+            throws MessagingException {
+        if (transport == null) {
+            return;
+        }
+        if (batch != null) {
+            batch.release(transport, reusable);
+        } else if (pool == null) {
+            transport.close();
+        } else if (reusable) {
+            pool.release(transport);
+        } else {
+            pool.invalidate(transport);
+        }
+    }
+
     public List<TokenMacro> getRuntimeMacros(ExtendedEmailPublisherContext context) {
         List<TokenMacro> macros = new ArrayList<>();
 
-        String triggerName = "Unknown";
+        macros.add(new TriggerNameContent(getTriggerName(context)));
+        return macros;
+    }
+
+    static String getTriggerName(ExtendedEmailPublisherContext context) {
         EmailTrigger trigger = context.getTrigger();
         if (trigger != null) {
             EmailTriggerDescriptor descriptor = trigger.getDescriptor();
             if (descriptor != null) {
-                triggerName = descriptor.getDisplayName();
+                return descriptor.getDisplayName();
             }
         }
-
-        macros.add(new TriggerNameContent(triggerName));
-        return macros;
+        return "Unknown";
     }
 
     private boolean executePresendScript(ExtendedEmailPublisherContext context, MimeMessage msg)
@@ -981,7 +1392,8 @@ public class ExtendedEmailPublisher extends Notifier {
             binding.setVariable("msg", msg);
             Properties props = null;
             if (session != null) {
-                props = session.getProperties();
+                // sessions are shared between emails, so the script gets its own copy of the properties
+                props = (Properties) session.getProperties().clone();
                 binding.setVariable("props", props);
             }
             if (transport != null) {
@@ -994,26 +1406,30 @@ public class ExtendedEmailPublisher extends Notifier {
             binding.setVariable("triggered", ImmutableMultimap.copyOf(context.getTriggered())); // TODO static
             // whitelist?
 
-            try {
-                ClassLoader cl = expandClasspath(context, Jenkins.get().getPluginManager().uberClassLoader);
+            try (ExtendedEmailPublisherDescriptor.ScriptClassLoader loader = expandClasspath(
+                    getClasspathEntries(context), Jenkins.get().getPluginManager().uberClassLoader)) {
+                ClassLoader cl = loader.getLoader();
                 if (AbstractEvalContent.isApprovedScript(script, GroovyLanguage.get())
                         || !Jenkins.get().isUseSecurity()) {
-                    GroovyShell shell = new GroovyShell(cl, binding, getCompilerConfiguration(false));
-                    shell.parse(script).run();
-                    cancel = (Boolean) shell.getVariable("cancel");
+                    Class<? extends Script> type = CompiledScripts.compile(
+                            script, cl, loader.getScope(), false, getCompilerConfiguration(false));
+                    CompiledScripts.run(type, binding);
+                    cancel = (Boolean) binding.getVariable("cancel");
                 } else {
-                    GroovyShell shell = new GroovyShell(cl, binding, getCompilerConfiguration(true));
                     try {
-                        new GroovySandbox()
-                                .withWhitelist(new ProxyWhitelist(
+                        Class<? extends Script> type = CompiledScripts.compile(
+                                script, cl, loader.getScope(), true, getCompilerConfiguration(true));
+                        CompiledScripts.runInSandbox(
+                                type,
+                                binding,
+                                new ProxyWhitelist(
                                         Whitelist.all(),
                                         new MimeMessageInstanceWhitelist(msg),
                                         new PropertiesInstanceWhitelist(props),
                                         new TaskListenerInstanceWhitelist(listener),
                                         new PrintStreamInstanceWhitelist(logger),
-                                        new EmailExtScriptTokenMacroWhitelist()))
-                                .runScript(shell, script);
-                        cancel = (Boolean) shell.getVariable("cancel");
+                                        new EmailExtScriptTokenMacroWhitelist()));
+                        cancel = (Boolean) binding.getVariable("cancel");
                     } catch (RejectedAccessException x) {
                         throw ScriptApproval.get().accessRejected(x, ApprovalContext.create());
                     }
@@ -1044,14 +1460,12 @@ public class ExtendedEmailPublisher extends Notifier {
     }
 
     /**
-     * Expand the plugin class loader with URL taken from the project descriptor and
-     * the global configuration.
+     * Collects the classpath entries from the project descriptor and the global configuration.
      *
      * @param context the current email context
-     * @param loader  the class loader to expand
-     * @return the new expanded classloader
+     * @return the classpath entries
      */
-    private ClassLoader expandClasspath(ExtendedEmailPublisherContext context, ClassLoader loader) throws IOException {
+    private List<ClasspathEntry> getClasspathEntries(ExtendedEmailPublisherContext context) {
         List<ClasspathEntry> classpathList = new ArrayList<>();
         if (classpath != null && !classpath.isEmpty()) {
             transformToClasspathEntries(classpath, context, classpathList);
@@ -1061,24 +1475,39 @@ public class ExtendedEmailPublisher extends Notifier {
         if (globalClasspath != null && !globalClasspath.isEmpty()) {
             transformToClasspathEntries(globalClasspath, context, classpathList);
         }
+        return classpathList;
+    }
 
+    /**
+     * Expand the plugin class loader with the given classpath entries. The expanded class loader is shared by all
+     * scripts run with the same classpath, but the entries are checked against the script approvals on every call.
+     *
+     * @param classpathList the classpath entries
+     * @param loader        the class loader to expand
+     * @return the new expanded classloader, to be closed once the script ran
+     */
+    private ExtendedEmailPublisherDescriptor.ScriptClassLoader expandClasspath(
+            List<ClasspathEntry> classpathList, ClassLoader loader) throws IOException {
         boolean useSecurity = Jenkins.get().isUseSecurity();
-        if (!classpathList.isEmpty()) {
-            GroovyClassLoader gloader = new GroovyClassLoader(loader);
-            gloader.setShouldRecompile(true);
+        if (useSecurity) {
             for (ClasspathEntry entry : classpathList) {
-                if (useSecurity) {
-                    ScriptApproval.get().using(entry);
-                }
-                gloader.addURL(entry.getURL());
+                ScriptApproval.get().using(entry);
             }
-            loader = gloader;
-        }
-        if (useSecurity) {
-            return GroovySandbox.createSecureClassLoader(loader);
-        } else {
-            return loader;
         }
+        String key = (useSecurity ? "secure:" : "") + System.identityHashCode(loader) + ':'
+                + CompiledScripts.getClasspathFingerprint(classpathList);
+        return getDescriptor().getScriptClassLoader(key, loader, () -> {
+            ClassLoader expanded = loader;
+            if (!classpathList.isEmpty()) {
+                GroovyClassLoader gloader = new GroovyClassLoader(loader);
+                gloader.setShouldRecompile(true);
+                for (ClasspathEntry entry : classpathList) {
+                    gloader.addURL(entry.getURL());
+                }
+                expanded = gloader;
+            }
+            return useSecurity ? GroovySandbox.createSecureClassLoader(expanded) : expanded;
+        });
     }
 
     private void transformToClasspathEntries(
@@ -1138,6 +1567,7 @@ public class ExtendedEmailPublisher extends Notifier {
         }
 
         InternetAddress fromAddress = new InternetAddress(from);
+        List<MailAccount> relays = new ArrayList<>();
         for (MailAccount addAccount : descriptor.getAddAccounts()) {
             if (addAccount == null) {
                 continue;
@@ -1168,8 +1598,22 @@ public class ExtendedEmailPublisher extends Notifier {
                 continue;
             }
 
-            debug(context.getListener().getLogger(), "Sending mail from additional account " + addAccount.getAddress());
-            return addAccount;
+            relays.add(addAccount);
+        }
+
+        if (relays.size() == 1) {
+            debug(
+                    context.getListener().getLogger(),
+                    "Sending mail from additional account " + relays.get(0).getAddress());
+            return relays.get(0);
+        }
+        if (!relays.isEmpty()) {
+            MailAccount relay = RelayGroup.of(fromAddress.getAddress()).select(relays);
+            debug(
+                    context.getListener().getLogger(),
+                    "Sending mail from additional account " + relay.getAddress() + " through "
+                            + relay.getSmtpHost() + ", one of " + relays.size() + " relays");
+            return relay;
         }
 
         debug(context.getListener().getLogger(), "Sending mail from default account using custom from address " + from);
@@ -1367,8 +1811,6 @@ public class ExtendedEmailPublisher extends Notifier {
     }
 
     private Multipart addContent(ExtendedEmailPublisherContext context, String charset) throws MessagingException {
-        final String text = ContentBuilder.transformText(
-                context.getTrigger().getEmail().getBody(), context, getRuntimeMacros(context));
         final Multipart multipart;
         boolean doBoth = false;
 
@@ -1396,6 +1838,9 @@ public class ExtendedEmailPublisher extends Notifier {
 
         messageContentType += "; charset=" + charset;
 
+        RenderCache.Content content = render(context, messageContentType, doBoth);
+        final String text = content.text();
+
         try {
             if (saveOutput) {
                 String extension = ".html";
@@ -1425,15 +1870,13 @@ public class ExtendedEmailPublisher extends Notifier {
         // (plain text or HTML depending on the content type)
         MimeBodyPart msgPart = new MimeBodyPart();
         debug(context.getListener().getLogger(), "messageContentType = %s", messageContentType);
-        if (messageContentType.startsWith("text/html")) {
-            CssInliner inliner = new CssInliner();
-            if (doBoth) {
+        if (content.html() != null) {
+            if (content.plainText() != null) {
                 MimeBodyPart plainTextPart = new MimeBodyPart();
-                plainTextPart.setContent(inliner.stripHtml(text), "text/plain; charset=" + charset);
+                plainTextPart.setContent(content.plainText(), "text/plain; charset=" + charset);
                 multipart.addBodyPart(plainTextPart);
             }
-            String inlinedCssHtml = inliner.process(text);
-            msgPart.setContent(inlinedCssHtml, messageContentType);
+            msgPart.setContent(content.html(), messageContentType);
         } else {
             msgPart.setContent(text, messageContentType);
         }
@@ -1443,6 +1886,60 @@ public class ExtendedEmailPublisher extends Notifier {
         return multipart;
     }
 
+    /**
+     * Renders the body of an email, or reuses the body rendered for another email of the same publisher invocation
+     * if it has the same template, content type and trigger name. A body which evaluated a
+     * {@link hudson.plugins.emailext.plugins.NonCacheableToken non-cacheable} token, e.g. {@code ${SCRIPT}}, is
+     * rendered again for every email.
+     */
+    private RenderCache.Content render(
+            ExtendedEmailPublisherContext context, String messageContentType, boolean doBoth) {
+        String body = context.getTrigger().getEmail().getBody();
+        RenderCache cache = context.getRenderCache();
+        if (cache == null) {
+            return renderContent(context, body, messageContentType, doBoth);
+        }
+        String key = String.join(
+                "\0",
+                ContentBuilder.expandDefaults(Objects.toString(body, ""), this),
+                messageContentType,
+                String.valueOf(doBoth),
+                getTriggerName(context));
+        int hits = cache.getHits();
+        int nonCacheableTokens = context.getNonCacheableTokens();
+        RenderCache.Content content = cache.get(
+                key,
+                () -> renderContent(context, body, messageContentType, doBoth),
+                () -> context.getNonCacheableTokens() == nonCacheableTokens);
+        if (cache.getHits() > hits) {
+            debug(context.getListener().getLogger(), "Reusing the body rendered for a previous email");
+        }
+        return content;
+    }
+
+    private RenderCache.Content renderContent(
+            ExtendedEmailPublisherContext context, String body, String messageContentType, boolean doBoth) {
+        String text = ContentBuilder.transformText(body, context, getRuntimeMacros(context));
+        if (!messageContentType.startsWith("text/html")) {
+            return new RenderCache.Content(text, null, null);
+        }
+        List<HtmlPipeline.Stage> stages = new ArrayList<>();
+        stages.add(new CssInliner()::inline);
+        boolean minify = getDescriptor().isMinifyHtmlEnabled();
+        if (minify) {
+            stages.add(new HtmlMinifier()::minify);
+        }
+        HtmlPipeline.Result result = new HtmlPipeline(stages).process(text, doBoth);
+        if (minify && getDescriptor().isDebugMode()) {
+            debug(
+                    context.getListener().getLogger(),
+                    "HTML body went from %d bytes as rendered to %d bytes inlined and minified",
+                    text.getBytes(StandardCharsets.UTF_8).length,
+                    result.html().getBytes(StandardCharsets.UTF_8).length);
+        }
+        return new RenderCache.Content(text, result.html(), result.plainText());
+    }
+
     @Override
     public boolean needsToRunAfterFinalized() {
         return true;
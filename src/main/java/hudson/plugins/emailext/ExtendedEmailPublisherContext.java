@@ -8,6 +8,12 @@ import hudson.model.BuildListener;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.emailext.plugins.EmailTrigger;
+import hudson.plugins.emailext.plugins.NonCacheableToken;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  *
@@ -21,6 +27,10 @@ public class ExtendedEmailPublisherContext {
     private TaskListener listener;
     private Launcher launcher;
     private Multimap<String, EmailTrigger> triggered;
+    private MailBatch batch;
+    private RenderCache renderCache;
+    private final Map<String, String> tokenValues = new ConcurrentHashMap<>();
+    private final AtomicInteger nonCacheableTokens = new AtomicInteger();
 
     @Deprecated
     public ExtendedEmailPublisherContext(
@@ -99,4 +109,47 @@ public class ExtendedEmailPublisherContext {
     protected void setTriggered(Multimap<String, EmailTrigger> triggered) {
         this.triggered = triggered;
     }
+
+    /**
+     * @return the batch the email is added to instead of being sent right away, or null
+     */
+    MailBatch getBatch() {
+        return batch;
+    }
+
+    void setBatch(MailBatch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * @return the bodies rendered for the other emails of the same publisher invocation, or null
+     */
+    RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
+
+    /**
+     * @return the values of the tokens evaluated for the email so far, by macro name and arguments
+     */
+    @Restricted(NoExternalUse.class)
+    public Map<String, String> getTokenValues() {
+        return tokenValues;
+    }
+
+    /**
+     * @return the number of {@link NonCacheableToken non-cacheable} tokens evaluated for the email so far
+     */
+    @Restricted(NoExternalUse.class)
+    public int getNonCacheableTokens() {
+        return nonCacheableTokens.get();
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void nonCacheableTokenEvaluated() {
+        nonCacheableTokens.incrementAndGet();
+    }
 }
@@ -25,19 +25,27 @@ import jakarta.mail.PasswordAuthentication;
 import jakarta.mail.Session;
 import jakarta.mail.internet.AddressException;
 import jakarta.mail.internet.InternetAddress;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
+import jenkins.util.SystemProperties;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.Symbol;
@@ -60,6 +68,20 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
 
     public static final Logger LOGGER = Logger.getLogger(ExtendedEmailPublisherDescriptor.class.getName());
     // SMTP property key constants
+    /**
+     * Maximum number of sessions kept by {@link #createSession(MailAccount, ExtendedEmailPublisherContext)}, 0 to
+     * create a new session for every email.
+     */
+    static final int SESSION_CACHE_SIZE =
+            SystemProperties.getInteger(ExtendedEmailPublisherDescriptor.class.getName() + ".sessionCacheSize", 100);
+
+    /**
+     * Maximum number of class loaders kept by {@link #getScriptClassLoader(String, ClassLoader, Supplier)}, 0 to
+     * create a new class loader for every script.
+     */
+    static final int CLASS_LOADER_CACHE_SIZE = SystemProperties.getInteger(
+            ExtendedEmailPublisherDescriptor.class.getName() + ".classLoaderCacheSize", 50);
+
     private static final String SMTP_HOST_PROPERTY = "mail.smtp.host";
     private static final String SMTP_AUTH_PROPERTY = "mail.smtp.auth";
     private static final String SMTP_AUTH_MECHANISMS_PROPERTY = "mail.smtp.auth.mechanisms";
@@ -162,6 +184,11 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
 
     private boolean precedenceBulk;
 
+    /**
+     * Minifies HTML bodies after their CSS has been inlined
+     */
+    private boolean minifyHtmlEnabled = false;
+
     private boolean debugMode = false;
 
     /**
@@ -185,6 +212,21 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
      */
     private boolean throttlingEnabled = false;
 
+    /**
+     * Keeps SMTP connections open between messages and shares them between builds
+     */
+    private boolean transportPoolingEnabled = false;
+
+    /**
+     * Hands built emails to a background queue instead of sending them from the build
+     */
+    private boolean asyncDeliveryEnabled = false;
+
+    /**
+     * Stores built emails on disk until they are sent, so that they survive a restart
+     */
+    private boolean outboxEnabled = false;
+
     private transient String smtpHost;
     private transient String smtpPort;
     private transient String smtpAuthUsername;
@@ -212,6 +254,32 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
                 }
             };
 
+    /**
+     * Sessions by account configuration, least recently used first.
+     */
+    private final transient Map<String, Session> sessions =
+            Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > SESSION_CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Class loaders of the pre-send and post-send scripts by classpath, least recently used first.
+     */
+    private final transient Map<String, ScriptClassLoader> scriptClassLoaders =
+            Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ScriptClassLoader> eldest) {
+                    if (size() > CLASS_LOADER_CACHE_SIZE) {
+                        eldest.getValue().drop();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+
     private Object readResolve() {
         if (smtpHost != null) {
             mailAccount.setSmtpHost(smtpHost);
@@ -348,8 +416,256 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
         this.throttlingEnabled = throttlingEnabled;
     }
 
+    public boolean isTransportPoolingEnabled() {
+        return transportPoolingEnabled;
+    }
+
+    @DataBoundSetter
+    public void setTransportPoolingEnabled(boolean transportPoolingEnabled) {
+        this.transportPoolingEnabled = transportPoolingEnabled;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public SmtpTransportPool.Statistics getTransportPoolStatistics() {
+        return SmtpTransportPool.get().getStatistics();
+    }
+
+    @Restricted(NoExternalUse.class)
+    public Map<String, CompilationCache<?>> getCompilationCaches() {
+        return CompilationCache.all();
+    }
+
+    @Restricted(NoExternalUse.class)
+    public Map<String, String> getSmtpServerHealth() {
+        return SmtpCircuitBreaker.get().getHealth();
+    }
+
+    public boolean isAsyncDeliveryEnabled() {
+        return asyncDeliveryEnabled;
+    }
+
+    @DataBoundSetter
+    public void setAsyncDeliveryEnabled(boolean asyncDeliveryEnabled) {
+        this.asyncDeliveryEnabled = asyncDeliveryEnabled;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public MailDeliveryQueue getDeliveryQueue() {
+        return MailDeliveryQueue.get();
+    }
+
+    @Restricted(NoExternalUse.class)
+    public Map<String, RateLimiter> getRateLimiters() {
+        Map<String, RateLimiter> limiters = new TreeMap<>(RateLimiter.getAccountLimiters());
+        if (isThrottlingEnabled()) {
+            limiters.put("throttling", EmailThrottler.getInstance().getLimiter());
+        }
+        return limiters;
+    }
+
+    public boolean isOutboxEnabled() {
+        return outboxEnabled;
+    }
+
+    @DataBoundSetter
+    public void setOutboxEnabled(boolean outboxEnabled) {
+        this.outboxEnabled = outboxEnabled;
+    }
+
+    /**
+     * Returns the session for sending emails from an account. Sessions are cached by the configuration of the
+     * account, so the properties are only parsed once. The credentials of an account are looked up for every email,
+     * in the context of its build, because builds in different folders may resolve the same credentials ID to
+     * different credentials; the session is cached together with a digest of the credentials it was looked up with,
+     * like the connections of the {@link SmtpTransportPool}. In debug mode the session logs to the build, so it is
+     * never shared.
+     */
     @Restricted(NoExternalUse.class)
     Session createSession(MailAccount acc, ExtendedEmailPublisherContext context) {
+        if (debugMode || SESSION_CACHE_SIZE <= 0) {
+            return buildSession(acc, getAuthenticator(acc, context));
+        }
+        PasswordAuthentication login = null;
+        if (!StringUtils.isBlank(acc.getCredentialsId())) {
+            login = resolveCredentials(acc, context);
+            if (login == null) {
+                // the connection fails as it would with the authenticator of the build
+                return buildSession(acc, null);
+            }
+        }
+        String key = sessionKey(acc, login);
+        Session session = sessions.get(key);
+        if (session == null) {
+            // a cached session must not keep the build it was first created for, only the resolved credentials
+            session = buildSession(acc, login == null ? null : authenticator(login));
+            sessions.put(key, session);
+        }
+        return session;
+    }
+
+    private static Authenticator authenticator(PasswordAuthentication login) {
+        return new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return login;
+            }
+        };
+    }
+
+    /**
+     * Looks up the credentials of an account in the context of a build.
+     *
+     * @return the credentials, or null if there are none for the build
+     */
+    private PasswordAuthentication resolveCredentials(MailAccount acc, ExtendedEmailPublisherContext context) {
+        Authenticator authenticator = getAuthenticator(acc, context);
+        if (authenticator == null) {
+            return null;
+        }
+        // an authenticator only hands out the credentials through a session
+        return Session.getInstance(new Properties(), authenticator)
+                .requestPasswordAuthentication(null, 0, "smtp", null, null);
+    }
+
+    private static String sessionKey(MailAccount acc, PasswordAuthentication login) {
+        return acc.getSmtpHost() + ':' + acc.getSmtpPort()
+                + ":ssl=" + acc.isUseSsl()
+                + ":tls=" + acc.isUseTls()
+                + ":oauth2=" + acc.isUseOAuth2()
+                + ":login=" + (login == null ? null : SmtpTransportPool.digest(login))
+                + '\n' + Objects.toString(acc.getAdvProperties(), "");
+    }
+
+    /**
+     * Forgets the cached sessions, e.g. because the accounts were reconfigured.
+     */
+    void clearSessions() {
+        sessions.clear();
+    }
+
+    /**
+     * Returns the class loader for scripts run with a classpath, e.g. the pre-send and post-send scripts or script
+     * triggers, creating it if necessary. Reusing the loader keeps
+     * every script run from defining the classes of the classpath again. The caller has to
+     * {@link ScriptClassLoader#close() close} the returned loader once its script ran.
+     *
+     * @param key     identifies the classpath, including the modification times of its files
+     * @param parent  the class loader the created one delegates to, which is not closed with it
+     * @param factory creates the class loader on a cache miss
+     */
+    @Restricted(NoExternalUse.class)
+    public ScriptClassLoader getScriptClassLoader(String key, ClassLoader parent, Supplier<ClassLoader> factory) {
+        if (CLASS_LOADER_CACHE_SIZE <= 0) {
+            ScriptClassLoader loader = new ScriptClassLoader(key, factory.get(), parent).acquire();
+            loader.drop();
+            return loader;
+        }
+        // acquired before it can be dropped by another thread
+        synchronized (scriptClassLoaders) {
+            return scriptClassLoaders
+                    .computeIfAbsent(key, k -> new ScriptClassLoader(k, factory.get(), parent))
+                    .acquire();
+        }
+    }
+
+    /**
+     * Forgets the cached script class loaders and the scripts compiled with them, e.g. because the default classpath
+     * was reconfigured.
+     */
+    void clearScriptClassLoaders() {
+        synchronized (scriptClassLoaders) {
+            scriptClassLoaders.values().forEach(ScriptClassLoader::drop);
+            scriptClassLoaders.clear();
+        }
+        CompiledScripts.clear();
+    }
+
+    /**
+     * A script class loader handed out by {@link #getScriptClassLoader(String, ClassLoader, Supplier)}. Once it was
+     * dropped from the cache and no script uses it any more, the class loaders created for its classpath are closed
+     * and the scripts compiled with them are forgotten.
+     */
+    @Restricted(NoExternalUse.class)
+    public static final class ScriptClassLoader implements AutoCloseable {
+        private final String scope;
+        private final ClassLoader loader;
+        private final ClassLoader parent;
+        private int users;
+        private boolean dropped;
+
+        ScriptClassLoader(String scope, ClassLoader loader, ClassLoader parent) {
+            this.scope = scope;
+            this.loader = loader;
+            this.parent = parent;
+        }
+
+        /**
+         * @return the class loader of the scripts
+         */
+        public ClassLoader getLoader() {
+            return loader;
+        }
+
+        /**
+         * @return identifies the class loader to {@link CompiledScripts#compile}, so that a compiled script is only
+         *     reused with the loader it was compiled with
+         */
+        public String getScope() {
+            return scope;
+        }
+
+        synchronized ScriptClassLoader acquire() {
+            users++;
+            return this;
+        }
+
+        /**
+         * Stops using the class loader.
+         */
+        @Override
+        public void close() {
+            boolean unused;
+            synchronized (this) {
+                unused = --users == 0 && dropped;
+            }
+            if (unused) {
+                release();
+            }
+        }
+
+        void drop() {
+            boolean unused;
+            synchronized (this) {
+                dropped = true;
+                unused = users == 0;
+            }
+            if (unused) {
+                release();
+            }
+        }
+
+        /**
+         * Closes the class loaders created for the classpath, i.e. those between the loader and its parent, to
+         * release the jar files they opened.
+         */
+        private void release() {
+            if (loader == parent) {
+                return;
+            }
+            CompiledScripts.invalidate(loader);
+            for (ClassLoader l = loader; l != null && l != parent; l = l.getParent()) {
+                if (l instanceof Closeable closeable) {
+                    try {
+                        closeable.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Failed to close script class loader", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private Session buildSession(MailAccount acc, Authenticator authenticator) {
 
         Properties props = new Properties(System.getProperties());
 
@@ -427,7 +743,7 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
             LOGGER.log(Level.WARNING, "Parameters parse fail.", e);
         }
 
-        return Session.getInstance(props, getAuthenticator(acc, context));
+        return Session.getInstance(props, authenticator);
     }
 
     private Authenticator getAuthenticator(final MailAccount acc, final ExtendedEmailPublisherContext context) {
@@ -694,6 +1010,15 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
         this.precedenceBulk = bulk;
     }
 
+    public boolean isMinifyHtmlEnabled() {
+        return minifyHtmlEnabled;
+    }
+
+    @DataBoundSetter
+    public void setMinifyHtmlEnabled(boolean minifyHtmlEnabled) {
+        this.minifyHtmlEnabled = minifyHtmlEnabled;
+    }
+
     public int getDefaultAttachBuildLog() {
         return defaultAttachBuildLog;
     }
@@ -860,6 +1185,10 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
     public boolean configure(StaplerRequest2 req, JSONObject formData) throws FormException {
         req.bindJSON(this, formData);
         save();
+        // sessions and connections may have been created with the previous account settings
+        clearSessions();
+        SmtpTransportPool.get().clear();
+        clearScriptClassLoaders();
         return super.configure(req, formData);
     }
 
@@ -936,6 +1265,7 @@ public final class ExtendedEmailPublisherDescriptor extends BuildStepDescriptor<
 
     void setAuthenticatorProvider(BiFunction<MailAccount, Run<?, ?>, Authenticator> authenticatorProvider) {
         this.authenticatorProvider = authenticatorProvider;
+        clearSessions();
     }
 
     @SuppressWarnings({"lgtm/jenkins/csrf", "lgtm/jenkins/no-permission-check"})
@@ -49,6 +49,27 @@ public class MailAccount extends AbstractDescribableImpl<MailAccount> {
     private boolean defaultAccount;
 
     private boolean useOAuth2;
+
+    /**
+     * Number of emails which can be sent at once before the sustained rate applies, 0 for no limit
+     */
+    private int rateLimitBurst;
+
+    /**
+     * Sustained number of emails per second, 0 for no limit
+     */
+    private double rateLimitPerSecond;
+
+    /**
+     * Maximum number of envelope recipients of a message, 0 for no limit
+     */
+    private int recipientChunkSize;
+
+    /**
+     * Share of the emails sent through this account among the accounts with the same address
+     */
+    private int weight = 1;
+
     private static final Pattern HOSTNAME_VALID =
             Pattern.compile("^(?![0-9]+$)(?!-)[A-Za-z0-9-]{1,63}(?<!-)(\\.(?!-)[A-Za-z0-9-]{1,63}(?<!-))*$");
 
@@ -315,6 +336,43 @@ public class MailAccount extends AbstractDescribableImpl<MailAccount> {
         this.advProperties = advProperties;
     }
 
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    @DataBoundSetter
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = Math.max(0, rateLimitBurst);
+    }
+
+    public double getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    @DataBoundSetter
+    public void setRateLimitPerSecond(double rateLimitPerSecond) {
+        this.rateLimitPerSecond = Math.max(0, rateLimitPerSecond);
+    }
+
+    public int getRecipientChunkSize() {
+        return recipientChunkSize;
+    }
+
+    @DataBoundSetter
+    public void setRecipientChunkSize(int recipientChunkSize) {
+        this.recipientChunkSize = recipientChunkSize;
+    }
+
+    public int getWeight() {
+        // configurations saved before the weight was introduced have 0
+        return Math.max(1, weight);
+    }
+
+    @DataBoundSetter
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
     private Object readResolve() {
         if (StringUtils.isBlank(credentialsId) && StringUtils.isNotBlank(smtpUsername) && smtpPassword != null) {
             migrateCredentials();
@@ -0,0 +1,123 @@
+package hudson.plugins.emailext;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the emails of one publisher invocation, e.g. one for each trigger and watcher, so that they are sent
+ * together once all of them have been built. Emails sent through the same account share one SMTP connection, which
+ * is opened for the first of them and closed by {@link #close()}.
+ */
+final class MailBatch implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(MailBatch.class.getName());
+
+    private final SmtpTransportPool pool;
+    private final List<Item> items = new ArrayList<>();
+    private final Map<String, Transport> transports = new HashMap<>();
+
+    /**
+     * @param pool the pool to borrow connections from, or null to open them directly
+     */
+    MailBatch(SmtpTransportPool pool) {
+        this.pool = pool;
+    }
+
+    void add(
+            ExtendedEmailPublisherContext context,
+            MailAccount account,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery) {
+        items.add(new Item(context, account, session, msg, delivery));
+    }
+
+    List<Item> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Hands out the connection of the batch for the given account, opening it if necessary. The connection stays
+     * open until the batch is closed, unless it is passed to {@link #release(Transport, boolean)} as not reusable.
+     *
+     * @param account the account the message is sent from
+     * @param session the session created for that account
+     * @param address the first recipient, used to select the transport protocol
+     * @return a connected transport
+     */
+    Transport borrow(MailAccount account, Session session, Address address)
+            throws MessagingException, InterruptedException {
+        String key = SmtpTransportPool.key(account);
+        Transport transport = transports.get(key);
+        if (transport == null) {
+            if (pool != null) {
+                transport = pool.borrow(account, session, address);
+            } else {
+                transport = session.getTransport(address);
+                transport.connect();
+            }
+            transports.put(key, transport);
+        }
+        return transport;
+    }
+
+    /**
+     * Gives a connection back after sending a message.
+     *
+     * @param transport a transport obtained from {@link #borrow(MailAccount, Session, Address)}
+     * @param reusable  false if the conversation failed, in which case the connection is closed now
+     */
+    void release(Transport transport, boolean reusable) {
+        if (reusable) {
+            return;
+        }
+        transports.values().remove(transport);
+        close(transport, false);
+    }
+
+    /**
+     * Closes the connections of the batch, or returns them to the pool.
+     */
+    @Override
+    public void close() {
+        for (Iterator<Transport> it = transports.values().iterator(); it.hasNext(); ) {
+            close(it.next(), true);
+            it.remove();
+        }
+    }
+
+    private void close(Transport transport, boolean reusable) {
+        if (pool == null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.log(Level.FINE, "Failed to close SMTP transport", e);
+            }
+        } else if (reusable) {
+            pool.release(transport);
+        } else {
+            pool.invalidate(transport);
+        }
+    }
+
+    /**
+     * An email which is built and waits to be sent.
+     */
+    record Item(
+            ExtendedEmailPublisherContext context,
+            MailAccount account,
+            Session session,
+            MimeMessage msg,
+            MailDeliveryAction.Delivery delivery) {}
+}
@@ -0,0 +1,185 @@
+package hudson.plugins.emailext;
+
+import hudson.model.Action;
+import hudson.model.Run;
+import jakarta.mail.Address;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records the outcome of the emails of a build which were handed to the {@link MailDeliveryQueue}, so that the
+ * result of a delivery that completes after the build is still visible on the build page.
+ */
+public class MailDeliveryAction implements Action {
+
+    private final List<Delivery> deliveries = new ArrayList<>();
+
+    /**
+     * Returns the action of the given run, adding it first if necessary.
+     *
+     * @param run the build
+     * @return the action of the build
+     */
+    static MailDeliveryAction of(Run<?, ?> run) {
+        synchronized (run) {
+            MailDeliveryAction action = run.getAction(MailDeliveryAction.class);
+            if (action == null) {
+                action = new MailDeliveryAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    @Override
+    public String getIconFileName() {
+        // rendered through summary.groovy
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.MailDeliveryAction_DisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    synchronized void add(Delivery delivery) {
+        if (!deliveries.contains(delivery)) {
+            deliveries.add(delivery);
+        }
+    }
+
+    public synchronized List<Delivery> getDeliveries() {
+        return Collections.unmodifiableList(new ArrayList<>(deliveries));
+    }
+
+    public enum Status {
+        QUEUED,
+        RETRYING,
+        SENT,
+        FAILED
+    }
+
+    /**
+     * The delivery of one email to its recipients.
+     */
+    public static class Delivery {
+        private final String trigger;
+        private final int recipients;
+        private volatile Status status = Status.QUEUED;
+        private volatile int attempts;
+        private volatile String error;
+        private volatile String messageId;
+        private transient String outboxKey;
+        private transient long firstAttempt;
+        private transient Set<String> relays;
+        private transient Address[] envelope;
+
+        public Delivery(String trigger, int recipients) {
+            this.trigger = trigger;
+            this.recipients = recipients;
+        }
+
+        String getOutboxKey() {
+            return outboxKey;
+        }
+
+        void setOutboxKey(String outboxKey) {
+            this.outboxKey = outboxKey;
+        }
+
+        /**
+         * @return the recipients the email still has to be sent to, or null for all recipients of the message
+         */
+        Address[] getEnvelope() {
+            return envelope;
+        }
+
+        void setEnvelope(Address[] envelope) {
+            this.envelope = envelope;
+        }
+
+        /**
+         * Records that the email is sent through a relay.
+         *
+         * @param relay the relay, see {@link SmtpTransportPool#key(MailAccount)}
+         * @return false if the email was already sent through that relay before
+         */
+        synchronized boolean throughRelay(String relay) {
+            if (relays == null) {
+                relays = new HashSet<>();
+            }
+            return relays.add(relay);
+        }
+
+        void attempted() {
+            if (attempts++ == 0) {
+                firstAttempt = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * @return the time since the first attempt to send the email. Unit: milliseconds
+         */
+        long getElapsedMillis() {
+            return attempts == 0 ? 0 : System.currentTimeMillis() - firstAttempt;
+        }
+
+        void retrying(String error) {
+            this.error = error;
+            this.status = Status.RETRYING;
+        }
+
+        void sent(String messageId) {
+            this.messageId = messageId;
+            this.error = null;
+            this.status = Status.SENT;
+        }
+
+        void failed(String error) {
+            this.error = error;
+            this.status = Status.FAILED;
+        }
+
+        public String getTrigger() {
+            return trigger;
+        }
+
+        public int getRecipients() {
+            return recipients;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public int getRetries() {
+            return Math.max(0, attempts - 1);
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        @Override
+        public String toString() {
+            return "%s email to %d recipient(s): %s after %d attempt(s)%s"
+                    .formatted(trigger, recipients, status, attempts, error == null ? "" : " (" + error + ")");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package hudson.plugins.emailext;
+
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Plugin-wide bounded queue of fully built emails, delivered by a small pool of worker threads so that the build
+ * which produced them does not have to wait for the SMTP server.
+ */
+@Restricted(NoExternalUse.class)
+public final class MailDeliveryQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(MailDeliveryQueue.class.getName());
+
+    /**
+     * Number of threads delivering queued emails.
+     */
+    static final int WORKERS = SystemProperties.getInteger(MailDeliveryQueue.class.getName() + ".workers", 2);
+
+    /**
+     * Maximum number of emails waiting for a worker, and of emails waiting for a retry or for the rate limit. When the
+     * queue is full, emails are sent by the build itself; retries beyond the limit are given up.
+     */
+    static final int CAPACITY = SystemProperties.getInteger(MailDeliveryQueue.class.getName() + ".capacity", 1000);
+
+    private static final MailDeliveryQueue INSTANCE = new MailDeliveryQueue(WORKERS, CAPACITY);
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final int capacity;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+
+    MailDeliveryQueue(int workers, int capacity) {
+        int threads = Math.max(1, workers);
+        this.capacity = Math.max(1, capacity);
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.capacity),
+                new NamingThreadFactory(new DaemonThreadFactory(), "email-ext delivery"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        scheduler = new ScheduledThreadPoolExecutor(
+                1, new NamingThreadFactory(new DaemonThreadFactory(), "email-ext retry scheduler"));
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public static MailDeliveryQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a delivery.
+     *
+     * @param delivery the delivery to run on a worker thread
+     * @return false if the queue is full or shut down, in which case the caller has to deliver the email itself
+     */
+    public boolean submit(Runnable delivery) {
+        try {
+            executor.execute(delivery);
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOGGER.log(Level.FINE, "Email delivery queue is full", e);
+            return false;
+        }
+    }
+
+    /**
+     * Queues a delivery after a delay, e.g. to retry after a transient error. The delivery never runs on the scheduler
+     * thread: if too many deliveries are waiting already, or the queue is full once the delay has passed,
+     * {@code overflow} runs instead.
+     *
+     * @param delivery    the delivery to run on a worker thread
+     * @param delayMillis the delay. Unit: milliseconds
+     * @param overflow    gives up on the delivery, e.g. records it as failed; must neither send the email nor block
+     */
+    public void schedule(Runnable delivery, long delayMillis, Runnable overflow) {
+        if (scheduler.getQueue().size() >= capacity) {
+            overflow(overflow);
+            return;
+        }
+        try {
+            scheduler.schedule(
+                    () -> {
+                        try {
+                            executor.execute(delivery);
+                            submitted.incrementAndGet();
+                        } catch (RejectedExecutionException e) {
+                            overflow(overflow);
+                        }
+                    },
+                    delayMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Shutting down, email retry was not scheduled", e);
+        }
+    }
+
+    private void overflow(Runnable overflow) {
+        overflowed.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Email delivery queue is full, giving up on a scheduled email");
+        overflow.run();
+    }
+
+    /**
+     * Cancels the deliveries which are waiting for a retry or for the rate limit.
+     */
+    void cancelScheduled() {
+        for (Runnable task : scheduler.getQueue()) {
+            ((Future<?>) task).cancel(false);
+        }
+    }
+
+    /**
+     * @return the number of emails waiting for a retry or for the rate limit
+     */
+    public int getScheduled() {
+        return scheduler.getQueue().size();
+    }
+
+    /**
+     * @return the number of emails waiting for a worker
+     */
+    public int getPending() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of emails currently being delivered
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getOverflowed() {
+        return overflowed.get();
+    }
+
+    @Override
+    public String toString() {
+        return ("%d pending, %d in progress, %d waiting for a retry; "
+                        + "%d queued, %d sent synchronously because the queue was full, %d retries given up")
+                .formatted(getPending(), getActive(), getScheduled(), getSubmitted(), getRejected(), getOverflowed());
+    }
+
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        // pending retries are dropped, the outbox sends them again after the restart
+        scheduler.shutdownNow();
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, unit)) {
+            LOGGER.log(Level.WARNING, "{0} queued emails were not delivered before shutdown", getPending());
+            executor.shutdownNow();
+        }
+    }
+
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        get().shutdown(30, TimeUnit.SECONDS);
+    }
+}
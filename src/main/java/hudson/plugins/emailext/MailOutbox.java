@@ -0,0 +1,594 @@
+package hudson.plugins.emailext;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.LogTaskListener;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Persistent outbox of emails which have been built but not yet handed to the SMTP server, so that they are sent
+ * after a restart instead of being lost.
+ * <p>
+ * The outbox is a sequence of append-only segment files in {@code $JENKINS_HOME/email-ext/outbox}. An
+ * {@code ENQUEUE} record holds the serialized MIME message and an idempotency key, a {@code COMMIT} record marks the
+ * message with that key as done. On startup the messages without a {@code COMMIT} record are sent again; segments are
+ * deleted, oldest first, as soon as all of their messages are committed.
+ */
+@Restricted(NoExternalUse.class)
+public final class MailOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(MailOutbox.class.getName());
+
+    /**
+     * A new segment is started once the current one has grown beyond this size. Unit: bytes
+     */
+    static final long SEGMENT_SIZE =
+            SystemProperties.getLong(MailOutbox.class.getName() + ".segmentSize", 8L * 1024 * 1024);
+
+    private static final byte ENQUEUE = 1;
+    private static final byte COMMIT = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static MailOutbox instance;
+
+    private final File dir;
+    private final long segmentSize;
+
+    /**
+     * Messages which have not been committed yet, by idempotency key.
+     */
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+
+    /**
+     * Number of pending messages per segment, for all segments still on disk.
+     */
+    private final TreeMap<Long, Integer> segments = new TreeMap<>();
+
+    private long current = -1;
+    private FileOutputStream out;
+
+    /**
+     * Number of bytes written to the outbox since it was created.
+     */
+    private long written;
+
+    /**
+     * Number of bytes written to the outbox which are known to be on disk.
+     */
+    private final AtomicLong synced = new AtomicLong();
+
+    /**
+     * Held while forcing records to disk, which happens outside of the lock of the outbox.
+     */
+    private final Object syncLock = new Object();
+
+    MailOutbox(File dir, long segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    public static synchronized MailOutbox get() {
+        if (instance == null) {
+            instance = new MailOutbox(new File(Jenkins.get().getRootDir(), "email-ext/outbox"), SEGMENT_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Computes the idempotency key of a message: the build, the trigger and a short hash of the recipients and the
+     * Message-ID. A build may send several emails for the same trigger and recipients, e.g. one per
+     * {@code emailext} step, so the Message-ID tells them apart.
+     *
+     * @param run        the build the email is sent for
+     * @param trigger    the name of the trigger
+     * @param recipients the recipients of the email
+     * @param messageId  the Message-ID of the email
+     * @return the idempotency key
+     */
+    static String key(Run<?, ?> run, String trigger, Address[] recipients, String messageId) {
+        String[] addresses = new String[recipients.length];
+        for (int i = 0; i < recipients.length; i++) {
+            addresses[i] = recipients[i].toString();
+        }
+        Arrays.sort(addresses);
+        String hash;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String identity = String.join(",", addresses) + '\n' + messageId;
+            hash = HexFormat.of()
+                    .formatHex(digest.digest(identity.getBytes(StandardCharsets.UTF_8)))
+                    .substring(0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return run.getParent().getFullName() + '#' + run.getNumber() + '/' + trigger + '/' + hash;
+    }
+
+    /**
+     * Stores a message before it is sent.
+     *
+     * @param key     the idempotency key, see {@link #key(Run, String, Address[], String)}
+     * @param run     the build the email is sent for
+     * @param account the account the email is sent from
+     * @param msg     the message, ready to be sent
+     */
+    public void enqueue(String key, Run<?, ?> run, MailAccount account, MimeMessage msg)
+            throws IOException, MessagingException {
+        ByteArrayOutputStream mime = new ByteArrayOutputStream();
+        msg.writeTo(mime);
+        append(new Entry(
+                key,
+                run.getParent().getFullName(),
+                run.getNumber(),
+                account.isDefaultAccount() ? "" : account.getAddress(),
+                mime.toByteArray()));
+    }
+
+    void append(Entry entry) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(entry.mime.length + 256);
+        DataOutputStream record = new DataOutputStream(buf);
+        record.writeByte(ENQUEUE);
+        record.writeUTF(entry.key);
+        record.writeUTF(entry.job);
+        record.writeInt(entry.build);
+        record.writeUTF(entry.account);
+        record.writeInt(entry.mime.length);
+        record.write(entry.mime);
+        long position;
+        synchronized (this) {
+            position = write(buf.toByteArray());
+
+            Entry previous = pending.put(entry.key, entry);
+            if (previous != null) {
+                release(previous);
+            }
+            entry.segment = current;
+            segments.merge(current, 1, Integer::sum);
+        }
+        sync(position);
+    }
+
+    /**
+     * Marks a message as done, whether it was accepted by the SMTP server or rejected permanently.
+     *
+     * @param key the idempotency key used when the message was enqueued
+     */
+    public void commit(String key) throws IOException {
+        long position;
+        synchronized (this) {
+            Entry entry = pending.remove(key);
+            if (entry == null) {
+                return;
+            }
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(buf);
+            record.writeByte(COMMIT);
+            record.writeUTF(key);
+            position = write(buf.toByteArray());
+            release(entry);
+            compact();
+        }
+        sync(position);
+    }
+
+    /**
+     * Reads the segments left by the previous run and returns the messages which still have to be sent. New records
+     * are always written to a new segment.
+     *
+     * @return the pending messages, oldest first
+     */
+    synchronized List<Entry> recover() throws IOException {
+        closeSegment();
+        pending.clear();
+        segments.clear();
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            TreeMap<Long, File> sorted = new TreeMap<>();
+            for (File file : files) {
+                try {
+                    String name = file.getName();
+                    sorted.put(
+                            Long.parseLong(
+                                    name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())),
+                            file);
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring unexpected file {0} in the email outbox", file);
+                }
+            }
+            for (Map.Entry<Long, File> segment : sorted.entrySet()) {
+                segments.put(segment.getKey(), 0);
+                read(segment.getKey(), segment.getValue());
+                current = segment.getKey();
+            }
+        }
+        compact();
+        return new ArrayList<>(pending.values());
+    }
+
+    private void read(long segment, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                if (type == ENQUEUE) {
+                    Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readInt(), in.readUTF(), null);
+                    int length = in.readInt();
+                    entry.mime = in.readNBytes(length);
+                    if (entry.mime.length < length) {
+                        throw new EOFException();
+                    }
+                    Entry previous = pending.put(entry.key, entry);
+                    if (previous != null) {
+                        release(previous);
+                    }
+                    entry.segment = segment;
+                    segments.merge(segment, 1, Integer::sum);
+                } else if (type == COMMIT) {
+                    Entry entry = pending.remove(in.readUTF());
+                    if (entry != null) {
+                        release(entry);
+                    }
+                } else {
+                    LOGGER.log(Level.WARNING, "Corrupt record in {0}, ignoring the rest of the segment", file);
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // the last record was only partially written before Jenkins stopped
+            LOGGER.log(Level.WARNING, "Truncated record at the end of {0}", file);
+        }
+    }
+
+    /**
+     * Writes a record, which is only on disk once {@link #sync(long)} returns.
+     *
+     * @return the position after the record, to be passed to {@link #sync(long)}
+     */
+    private long write(byte[] record) throws IOException {
+        if (out == null || current < 0 || out.getChannel().size() >= segmentSize) {
+            closeSegment();
+            Files.createDirectories(dir.toPath());
+            current++;
+            segments.putIfAbsent(current, 0);
+            out = new FileOutputStream(segmentFile(current), true);
+        }
+        out.write(record);
+        written += record.length;
+        compact();
+        return written;
+    }
+
+    /**
+     * Forces the records written up to a position to disk. This happens outside of the lock of the outbox, so that
+     * other senders can write their records meanwhile, and the records written by all of them are forced to disk
+     * together by the next caller.
+     *
+     * @param position the position returned by {@link #write(byte[])}
+     */
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (synced.get() >= position) {
+                return;
+            }
+            FileOutputStream stream;
+            long target;
+            synchronized (this) {
+                stream = out;
+                target = written;
+            }
+            try {
+                if (stream != null) {
+                    stream.getFD().sync();
+                }
+            } catch (IOException e) {
+                // the segment was closed meanwhile, which forces its records to disk first
+                if (synced.get() >= position) {
+                    return;
+                }
+                throw e;
+            }
+            synced.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    private void release(Entry entry) {
+        segments.computeIfPresent(entry.segment, (k, count) -> count - 1);
+    }
+
+    /**
+     * Deletes the oldest segments as long as all of their messages are committed. Segments are only deleted in
+     * order, so a {@code COMMIT} record is never lost while the matching {@code ENQUEUE} record is still on disk.
+     */
+    private void compact() {
+        while (!segments.isEmpty()) {
+            Map.Entry<Long, Integer> oldest = segments.firstEntry();
+            if (oldest.getValue() > 0 || (oldest.getKey() == current && out != null)) {
+                return;
+            }
+            segments.pollFirstEntry();
+            File file = segmentFile(oldest.getKey());
+            if (file.exists() && !file.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete email outbox segment {0}", file);
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (out != null) {
+            out.getFD().sync();
+            synced.accumulateAndGet(written, Math::max);
+            out.close();
+            out = null;
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, SEGMENT_PREFIX + "%012d".formatted(segment) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the number of messages which have not been committed yet
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Sends a message recovered from the outbox the way other messages are sent: subject to the circuit breaker and
+     * the rate limits of its account, and through the transport pool if it is enabled. The message is committed once
+     * it is sent or rejected permanently. While the server is unavailable or the failure is transient, it is tried
+     * again according to the {@link SmtpRetryPolicy}, and once the retries are exhausted it is kept for the next
+     * restart.
+     */
+    void replay(Entry entry, ExtendedEmailPublisherDescriptor descriptor) throws IOException {
+        Run<?, ?> run = null;
+        Job<?, ?> job = Jenkins.get().getItemByFullName(entry.job, Job.class);
+        if (job != null) {
+            run = job.getBuildByNumber(entry.build);
+        }
+        MailAccount account = null;
+        if (entry.account.isEmpty()) {
+            account = descriptor.getMailAccount();
+        } else {
+            for (MailAccount addAccount : descriptor.getAddAccounts()) {
+                if (addAccount != null && entry.account.equals(addAccount.getAddress())) {
+                    account = addAccount;
+                    break;
+                }
+            }
+        }
+        if (account == null || (run == null && StringUtils.isNotBlank(account.getCredentialsId()))) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Dropping email {0} from the outbox, its account or build no longer exists",
+                    entry.key);
+            commit(entry.key);
+            return;
+        }
+
+        SmtpCircuitBreaker breaker = SmtpCircuitBreaker.get();
+        String host = SmtpCircuitBreaker.key(account);
+        long unavailable = breaker.checkAvailable(host);
+        if (unavailable > 0) {
+            retry(entry, descriptor, new MessagingException("SMTP server " + host + " is unavailable"), unavailable);
+            return;
+        }
+        if (!entry.reserved) {
+            entry.reserved = true;
+            long delay = reserveRateLimit(account, descriptor);
+            if (delay > 0) {
+                LOGGER.log(Level.FINE, "Rate limit reached, email {0} from the outbox deferred", entry.key);
+                scheduleReplay(entry, descriptor, delay);
+                return;
+            }
+        }
+
+        ExtendedEmailPublisherContext context =
+                new ExtendedEmailPublisherContext(null, run, null, null, new LogTaskListener(LOGGER, Level.INFO));
+        SmtpTransportPool pool = descriptor.isTransportPoolingEnabled() ? SmtpTransportPool.get() : null;
+        Transport transport = null;
+        boolean sent = false;
+        try {
+            Session session = descriptor.createSession(account, context);
+            MimeMessage msg;
+            try (InputStream in = new ByteArrayInputStream(entry.mime)) {
+                msg = new MimeMessage(session, in);
+            }
+            Address[] recipients = msg.getAllRecipients();
+            if (recipients != null && recipients.length > 0) {
+                if (pool != null) {
+                    transport = pool.borrow(account, session, recipients[0]);
+                } else {
+                    transport = session.getTransport(recipients[0]);
+                    transport.connect();
+                }
+                transport.sendMessage(msg, recipients);
+            }
+            sent = true;
+            breaker.recordSuccess(host);
+            LOGGER.log(Level.INFO, "Sent email {0} from the outbox", entry.key);
+        } catch (MessagingException e) {
+            if (ExtendedEmailPublisher.isServerUnavailable(e)) {
+                breaker.recordFailure(host);
+            } else {
+                breaker.recordSuccess(host);
+            }
+            if (SmtpRetryPolicy.isRetryable(e)) {
+                retry(entry, descriptor, e, 0);
+                return;
+            }
+            LOGGER.log(Level.WARNING, "Failed to send email " + entry.key + " from the outbox, dropping it", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.WARNING, "Interrupted while sending email " + entry.key + " from the outbox, keeping it");
+            return;
+        } finally {
+            closeTransport(pool, transport, sent);
+        }
+        commit(entry.key);
+    }
+
+    /**
+     * Tries to send a message again later, or keeps it for the next restart once the retries are exhausted.
+     */
+    private void retry(Entry entry, ExtendedEmailPublisherDescriptor descriptor, MessagingException e, long minDelay) {
+        if (entry.attempts++ == 0) {
+            entry.firstAttempt = System.currentTimeMillis();
+        }
+        long delay = SmtpRetryPolicy.get()
+                .nextDelay(
+                        entry.attempts,
+                        System.currentTimeMillis() - entry.firstAttempt,
+                        ExtendedEmailPublisher.getSmtpErrorCode(e));
+        if (delay < 0) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to send email " + entry.key + " from the outbox, keeping it until the next restart",
+                    e);
+            return;
+        }
+        LOGGER.log(Level.INFO, "Failed to send email " + entry.key + " from the outbox, retrying", e);
+        scheduleReplay(entry, descriptor, Math.max(delay, minDelay));
+    }
+
+    private void scheduleReplay(Entry entry, ExtendedEmailPublisherDescriptor descriptor, long delayMillis) {
+        MailDeliveryQueue.get()
+                .schedule(
+                        () -> replayLater(entry, descriptor),
+                        delayMillis,
+                        () -> LOGGER.log(
+                                Level.WARNING,
+                                "Email delivery queue is full, keeping email {0} in the outbox until the next restart",
+                                entry.key));
+    }
+
+    private void replayLater(Entry entry, ExtendedEmailPublisherDescriptor descriptor) {
+        try {
+            replay(entry, descriptor);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to replay email " + entry.key + " from the outbox", e);
+        }
+    }
+
+    /**
+     * Takes a token from the rate limiter of the account and, if throttling is enabled, from the global limiter.
+     *
+     * @return how long the message has to be deferred, zero if it can be sent now. Unit: milliseconds
+     */
+    private static long reserveRateLimit(MailAccount account, ExtendedEmailPublisherDescriptor descriptor) {
+        long delay = 0;
+        RateLimiter accountLimiter = RateLimiter.forAccount(account);
+        if (accountLimiter != null) {
+            delay = accountLimiter.reserve();
+        }
+        if (descriptor.isThrottlingEnabled()) {
+            delay = Math.max(delay, EmailThrottler.getInstance().getLimiter().reserve());
+        }
+        return delay;
+    }
+
+    private static void closeTransport(SmtpTransportPool pool, Transport transport, boolean reusable) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            if (pool == null) {
+                transport.close();
+            } else if (reusable) {
+                pool.release(transport);
+            } else {
+                pool.invalidate(transport);
+            }
+        } catch (MessagingException e) {
+            LOGGER.log(Level.FINE, "Failed to close SMTP transport", e);
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replayPending() throws IOException {
+        MailOutbox outbox = get();
+        List<Entry> entries = outbox.recover();
+        if (entries.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "Sending {0} emails left in the outbox", entries.size());
+        ExtendedEmailPublisherDescriptor descriptor =
+                Jenkins.get().getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        Timer.get().submit(() -> {
+            for (Entry entry : entries) {
+                outbox.replayLater(entry, descriptor);
+            }
+        });
+    }
+
+    /**
+     * A message recorded in the outbox.
+     */
+    static final class Entry {
+        final String key;
+        final String job;
+        final int build;
+        final String account;
+        byte[] mime;
+        long segment;
+
+        /**
+         * Number of failed attempts to send the message since the restart, and the time of the first one.
+         */
+        int attempts;
+
+        long firstAttempt;
+
+        /**
+         * Whether a token of the rate limit has already been taken for the message.
+         */
+        boolean reserved;
+
+        Entry(String key, String job, int build, String account, byte[] mime) {
+            this.key = key;
+            this.job = job;
+            this.build = build;
+            this.account = account;
+            this.mime = mime;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package hudson.plugins.emailext;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Actionable;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.ConfigFiles;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileAction;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Index of the templates managed by the config-file-provider plugin, e.g. {@link GroovyTemplateConfig} and
+ * {@link JellyTemplateConfig}, by their case-insensitive name. Each folder has its own index, which includes the
+ * templates of the enclosing folders and the global ones, like {@link ConfigFiles#getConfigsInContext} does. The
+ * indexes are rebuilt once managed files are saved: all of them for global files, only those of the folder and the
+ * folders inside it for files of a folder.
+ * <p>
+ * Only to be used when the config-file-provider plugin is installed.
+ */
+@Restricted(NoExternalUse.class)
+public final class ManagedTemplates {
+
+    private static final Map<ItemGroup<?>, Map<Class<?>, Map<String, Template>>> INDEXES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Incremented when managed files change, so that indexes built from older configs are not kept.
+     */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private ManagedTemplates() {}
+
+    /**
+     * Finds a managed template.
+     *
+     * @param context  where the template is used, usually the parent of a job
+     * @param provider the provider of the type of template
+     * @param name     the name of the template, case-insensitive
+     * @return the template, null if there is no such template in the context
+     */
+    @CheckForNull
+    public static Template find(ItemGroup<?> context, Class<? extends ConfigProvider> provider, String name) {
+        Map<Class<?>, Map<String, Template>> indexes =
+                INDEXES.computeIfAbsent(context, c -> new ConcurrentHashMap<>());
+        Map<String, Template> index = indexes.get(provider);
+        if (index == null) {
+            long generation = GENERATION.get();
+            index = build(context, provider);
+            if (generation == GENERATION.get()) {
+                indexes.put(provider, index);
+            }
+        }
+        return index.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    private static Map<String, Template> build(ItemGroup<?> context, Class<? extends ConfigProvider> provider) {
+        Map<String, Template> index = new HashMap<>();
+        // the index is shared by everyone using the context, so it must not depend on who builds it
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            List<Config> configs = ConfigFiles.getConfigsInContext(context, provider);
+            GlobalConfigFiles globalConfigFiles = ExtensionList.lookupSingleton(GlobalConfigFiles.class);
+            for (Config config : configs) {
+                // the first config with a name wins, like the scans this replaces
+                index.computeIfAbsent(
+                        config.name.toLowerCase(Locale.ROOT),
+                        n -> new Template(
+                                config.name,
+                                config.content.getBytes(StandardCharsets.UTF_8),
+                                globalConfigFiles.getById(config.id) == config));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Drops all indexes, e.g. because managed files were added, changed or removed.
+     */
+    public static void invalidate() {
+        GENERATION.incrementAndGet();
+        INDEXES.clear();
+    }
+
+    /**
+     * Drops the indexes of a folder and of the folders inside it, e.g. because managed files of the folder were
+     * added, changed or removed.
+     *
+     * @param group the folder
+     */
+    public static void invalidate(ItemGroup<?> group) {
+        GENERATION.incrementAndGet();
+        synchronized (INDEXES) {
+            INDEXES.keySet().removeIf(context -> isWithin(context, group));
+        }
+    }
+
+    private static boolean isWithin(ItemGroup<?> context, ItemGroup<?> group) {
+        for (ItemGroup<?> g = context; g != null; g = g instanceof Item item ? item.getParent() : null) {
+            if (g == group) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A managed template.
+     *
+     * @param name    the name of the template
+     * @param content the content of the template, encoded as UTF-8
+     * @param global  true if the template is in the global configuration, so it can only have been written by an
+     *                administrator, false if it is in a folder
+     */
+    public record Template(String name, byte[] content, boolean global) {
+        public InputStream open() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+
+    /**
+     * Invalidates the indexes when managed files are saved, globally or in folders. Other items are saved all the
+     * time, e.g. by builds and multibranch scans, so only folders which can hold managed files are considered.
+     */
+    @Extension(optional = true)
+    public static final class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof GlobalConfigFiles || o instanceof ConfigProvider) {
+                invalidate();
+            } else if (o instanceof ItemGroup<?> group
+                    && o instanceof Actionable actionable
+                    && actionable.getAction(FolderConfigFileAction.class) != null) {
+                invalidate(group);
+            }
+        }
+    }
+}
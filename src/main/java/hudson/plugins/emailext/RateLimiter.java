@@ -0,0 +1,162 @@
+package hudson.plugins.emailext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Lock-free token bucket: up to {@code burst} emails can be sent at once, after which tokens are refilled at the
+ * sustained rate.
+ * <p>
+ * The bucket is stored as the single point in time at which it will be full again, which is updated with
+ * compare-and-set, so concurrent senders never block each other. A sender which finds the bucket empty
+ * {@link #reserve() reserves} a future token and is told how long to wait for it, so that deferred emails are sent
+ * in order instead of being dropped.
+ */
+@Restricted(NoExternalUse.class)
+public final class RateLimiter {
+
+    private static final ConcurrentMap<String, RateLimiter> ACCOUNT_LIMITERS = new ConcurrentHashMap<>();
+
+    private final int burst;
+    private final double ratePerSecond;
+    private final long intervalNanos;
+    private final LongSupplier clock;
+
+    /**
+     * The time at which the bucket is full again, a time in the past if it is full.
+     */
+    private final AtomicLong fullAt;
+
+    /**
+     * @param burst         number of emails which can be sent without delay
+     * @param ratePerSecond sustained rate at which tokens are refilled
+     */
+    public RateLimiter(int burst, double ratePerSecond) {
+        this(burst, ratePerSecond, System::nanoTime);
+    }
+
+    RateLimiter(int burst, double ratePerSecond, LongSupplier clock) {
+        this.burst = Math.max(1, burst);
+        this.ratePerSecond = ratePerSecond;
+        this.intervalNanos = Math.max(1L, Math.round(TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.clock = clock;
+        this.fullAt = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Returns the limiter of an account, or null if the account is not rate limited. Accounts which share the SMTP
+     * server and credentials share the limiter.
+     *
+     * @param account the mail account
+     * @return the limiter, or null
+     */
+    static RateLimiter forAccount(MailAccount account) {
+        if (account.getRateLimitBurst() <= 0 || account.getRateLimitPerSecond() <= 0) {
+            return null;
+        }
+        String key = SmtpTransportPool.key(account);
+        RateLimiter limiter = ACCOUNT_LIMITERS.get(key);
+        if (limiter != null && limiter.isConfiguredFor(account)) {
+            return limiter;
+        }
+        // only replaced when the account is configured differently, so the tokens taken so far are kept
+        return ACCOUNT_LIMITERS.compute(
+                key,
+                (k, current) -> current != null && current.isConfiguredFor(account)
+                        ? current
+                        : new RateLimiter(account.getRateLimitBurst(), account.getRateLimitPerSecond()));
+    }
+
+    private boolean isConfiguredFor(MailAccount account) {
+        return burst == account.getRateLimitBurst() && ratePerSecond == account.getRateLimitPerSecond();
+    }
+
+    /**
+     * @return the limiters of all rate limited accounts, by SMTP server
+     */
+    static ConcurrentMap<String, RateLimiter> getAccountLimiters() {
+        return ACCOUNT_LIMITERS;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long now = clock.getAsLong();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (next - now > burst * intervalNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes a token, possibly one which is only available in the future.
+     *
+     * @return how long the caller has to wait before using the token, zero if it can be used now. Unit: milliseconds
+     */
+    public long reserve() {
+        while (true) {
+            long now = clock.getAsLong();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (fullAt.compareAndSet(current, next)) {
+                long wait = next - now - burst * intervalNanos;
+                return wait <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(wait) + 1;
+            }
+        }
+    }
+
+    /**
+     * Takes a token even if none is available, for emails which are not subject to the limit.
+     */
+    public void consume() {
+        reserve();
+    }
+
+    /**
+     * Fills the bucket.
+     */
+    public void reset() {
+        fullAt.set(clock.getAsLong());
+    }
+
+    /**
+     * @return the number of tokens currently available, negative if tokens have been reserved in advance
+     */
+    public long getAvailable() {
+        long pending = fullAt.get() - clock.getAsLong();
+        if (pending <= 0) {
+            return burst;
+        }
+        return burst - (pending + intervalNanos - 1) / intervalNanos;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    @Override
+    public String toString() {
+        long available = getAvailable();
+        return available >= 0
+                ? "%d of %d available, refilled at %.3g/s".formatted(available, burst, ratePerSecond)
+                : "%d deferred, refilled at %.3g/s".formatted(-available, ratePerSecond);
+    }
+}
@@ -0,0 +1,151 @@
+package hudson.plugins.emailext;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+
+/**
+ * Sends one message to a long list of recipients in chunks, for SMTP servers which limit the number of recipients
+ * of a message. The first chunk is sent by the calling thread, the others in parallel, and a chunk which fails does
+ * not prevent the others from being sent.
+ */
+final class RecipientChunker {
+
+    /**
+     * Maximum number of chunks sent in parallel, in addition to the one sent by the calling thread.
+     */
+    static final int PARALLELISM =
+            SystemProperties.getInteger(RecipientChunker.class.getName() + ".parallelism", 3);
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = Math.max(1, PARALLELISM);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "email-ext recipient chunk"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private RecipientChunker() {}
+
+    /**
+     * Sends the message of one chunk of recipients.
+     */
+    interface ChunkSender {
+        /**
+         * @param recipients the envelope recipients of the chunk
+         * @param index      the index of the chunk, 0 for the chunk sent by the calling thread
+         */
+        void send(Address[] recipients, int index) throws MessagingException, InterruptedException;
+    }
+
+    static List<Address[]> split(Address[] recipients, int chunkSize) {
+        List<Address[]> chunks = new ArrayList<>();
+        for (int from = 0; from < recipients.length; from += chunkSize) {
+            chunks.add(Arrays.copyOfRange(recipients, from, Math.min(recipients.length, from + chunkSize)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Sends a message to all recipients, at most {@code chunkSize} at a time.
+     *
+     * @param recipients the envelope recipients
+     * @param chunkSize  the maximum number of recipients of a chunk
+     * @param sender     sends one chunk
+     * @throws SendFailedException if a chunk could not be sent. The valid sent addresses are those of the chunks that
+     *     were sent, the valid unsent addresses those of the chunks that failed, and the next exception is the error
+     *     of the first chunk that failed. If that error is a {@link SendFailedException} itself, it tells which
+     *     addresses of the chunk were sent, not sent or invalid.
+     */
+    static void send(Address[] recipients, int chunkSize, ChunkSender sender)
+            throws SendFailedException, InterruptedException {
+        List<Address[]> chunks = split(recipients, chunkSize);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < chunks.size(); i++) {
+            Address[] chunk = chunks.get(i);
+            int index = i;
+            futures.add(EXECUTOR.submit(() -> {
+                sender.send(chunk, index);
+                return null;
+            }));
+        }
+
+        List<Address> sent = new ArrayList<>();
+        List<Address> unsent = new ArrayList<>();
+        List<Address> invalid = new ArrayList<>();
+        Exception failure = null;
+        int failed = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Address[] chunk = chunks.get(i);
+            Exception error = null;
+            try {
+                if (i == 0) {
+                    sender.send(chunk, 0);
+                } else {
+                    futures.get(i - 1).get();
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                throw e;
+            } catch (ExecutionException e) {
+                error = e.getCause() instanceof Exception cause ? cause : e;
+            } catch (MessagingException | RuntimeException e) {
+                error = e;
+            }
+            if (error == null) {
+                sent.addAll(Arrays.asList(chunk));
+            } else {
+                if (error instanceof SendFailedException e && hasAddresses(e)) {
+                    // the server may have accepted some recipients of the chunk, which must not get the email twice
+                    addAll(sent, e.getValidSentAddresses());
+                    addAll(unsent, e.getValidUnsentAddresses());
+                    addAll(invalid, e.getInvalidAddresses());
+                } else {
+                    unsent.addAll(Arrays.asList(chunk));
+                }
+                failed++;
+                if (failure == null) {
+                    failure = error;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new SendFailedException(
+                    "Sending failed for " + failed + " of " + chunks.size() + " recipient chunks",
+                    failure,
+                    sent.toArray(new Address[0]),
+                    unsent.toArray(new Address[0]),
+                    invalid.toArray(new Address[0]));
+        }
+    }
+
+    private static boolean hasAddresses(SendFailedException e) {
+        return e.getValidSentAddresses() != null
+                || e.getValidUnsentAddresses() != null
+                || e.getInvalidAddresses() != null;
+    }
+
+    private static void addAll(List<Address> list, Address[] addresses) {
+        if (addresses != null) {
+            list.addAll(Arrays.asList(addresses));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package hudson.plugins.emailext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Spreads emails across the additional accounts which send for the same from address, e.g. two SMTP relays.
+ * <p>
+ * By default relays are picked by smooth weighted round-robin, using the weight of each {@link MailAccount}; with
+ * {@code -Dhudson.plugins.emailext.RelayGroup.leastOutstanding=true} the relay with the fewest emails in flight
+ * relative to its weight is picked instead. Relays whose circuit is open are skipped while another relay is
+ * available.
+ */
+@Restricted(NoExternalUse.class)
+public final class RelayGroup {
+
+    static final boolean LEAST_OUTSTANDING =
+            SystemProperties.getBoolean(RelayGroup.class.getName() + ".leastOutstanding", false);
+
+    private static final ConcurrentMap<String, RelayGroup> GROUPS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicInteger> OUTSTANDING = new ConcurrentHashMap<>();
+
+    /**
+     * Current weights of the smooth weighted round-robin, by relay.
+     */
+    private final ConcurrentMap<String, Integer> current = new ConcurrentHashMap<>();
+
+    private final boolean leastOutstanding;
+
+    RelayGroup(boolean leastOutstanding) {
+        this.leastOutstanding = leastOutstanding;
+    }
+
+    /**
+     * @param address the from address of the accounts
+     * @return the group of the accounts sending for that address
+     */
+    static RelayGroup of(String address) {
+        return GROUPS.computeIfAbsent(address.toLowerCase(Locale.ENGLISH), k -> new RelayGroup(LEAST_OUTSTANDING));
+    }
+
+    /**
+     * Finds the other valid accounts sending for the same from address as the given additional account.
+     *
+     * @param accounts the additional accounts
+     * @param account  the account
+     * @return the alternatives, excluding accounts using the same SMTP server and credentials as {@code account}
+     */
+    static List<MailAccount> alternatives(Collection<MailAccount> accounts, MailAccount account) {
+        List<MailAccount> alternatives = new ArrayList<>();
+        if (account.isDefaultAccount() || account.getAddress() == null) {
+            return alternatives;
+        }
+        String key = SmtpTransportPool.key(account);
+        for (MailAccount other : accounts) {
+            if (other != null
+                    && other.isValid()
+                    && account.getAddress().equalsIgnoreCase(other.getAddress())
+                    && !key.equals(SmtpTransportPool.key(other))) {
+                alternatives.add(other);
+            }
+        }
+        return alternatives;
+    }
+
+    /**
+     * Picks the relay for the next email.
+     *
+     * @param relays the accounts of the group, not empty
+     * @return the selected account
+     */
+    MailAccount select(List<MailAccount> relays) {
+        List<MailAccount> candidates = new ArrayList<>();
+        SmtpCircuitBreaker breaker = SmtpCircuitBreaker.get();
+        for (MailAccount relay : relays) {
+            if (breaker.getState(SmtpCircuitBreaker.key(relay)) != SmtpCircuitBreaker.State.OPEN) {
+                candidates.add(relay);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = relays;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        return leastOutstanding ? selectLeastOutstanding(candidates) : selectRoundRobin(candidates);
+    }
+
+    private synchronized MailAccount selectRoundRobin(List<MailAccount> candidates) {
+        MailAccount best = null;
+        int bestWeight = Integer.MIN_VALUE;
+        int total = 0;
+        for (MailAccount candidate : candidates) {
+            int weight = candidate.getWeight();
+            total += weight;
+            int value = current.merge(SmtpTransportPool.key(candidate), weight, Integer::sum);
+            if (value > bestWeight) {
+                best = candidate;
+                bestWeight = value;
+            }
+        }
+        current.merge(SmtpTransportPool.key(best), -total, Integer::sum);
+        return best;
+    }
+
+    private static MailAccount selectLeastOutstanding(List<MailAccount> candidates) {
+        MailAccount best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (MailAccount candidate : candidates) {
+            double load = (getOutstanding(candidate) + 1.0) / candidate.getWeight();
+            if (load < bestLoad) {
+                best = candidate;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of emails currently being sent through the account
+     */
+    static int getOutstanding(MailAccount account) {
+        AtomicInteger outstanding = OUTSTANDING.get(SmtpTransportPool.key(account));
+        return outstanding == null ? 0 : outstanding.get();
+    }
+
+    /**
+     * Records that an email is being sent through the account; must be followed by {@link #finished(MailAccount)}.
+     */
+    static void started(MailAccount account) {
+        OUTSTANDING
+                .computeIfAbsent(SmtpTransportPool.key(account), k -> new AtomicInteger())
+                .incrementAndGet();
+    }
+
+    static void finished(MailAccount account) {
+        AtomicInteger outstanding = OUTSTANDING.get(SmtpTransportPool.key(account));
+        if (outstanding != null) {
+            outstanding.decrementAndGet();
+        }
+    }
+}
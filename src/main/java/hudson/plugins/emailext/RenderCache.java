@@ -0,0 +1,50 @@
+package hudson.plugins.emailext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bodies rendered during one publisher invocation. Triggers that fire for the same build often share their body,
+ * e.g. {@code $PROJECT_DEFAULT_CONTENT}, so it only has to be rendered, and its CSS inlined, once for all of them.
+ */
+final class RenderCache {
+
+    /**
+     * A rendered body.
+     *
+     * @param text      the body with all tokens expanded
+     * @param html      the HTML with inlined CSS, null for plain text bodies
+     * @param plainText the plain text alternative of the HTML, null if there is none
+     */
+    record Content(String text, String html, String plainText) {}
+
+    private final Map<String, Content> contents = new HashMap<>();
+    private int hits;
+
+    /**
+     * Returns the rendered body, rendering it on the first request.
+     *
+     * @param key       identifies everything the rendered body depends on
+     * @param renderer  renders the body
+     * @param cacheable tells once the body was rendered whether it may be reused, e.g. not if it evaluated a token
+     *     whose value differs every time
+     */
+    synchronized Content get(String key, Supplier<Content> renderer, BooleanSupplier cacheable) {
+        Content content = contents.get(key);
+        if (content != null) {
+            hits++;
+            return content;
+        }
+        content = renderer.get();
+        if (cacheable.getAsBoolean()) {
+            contents.put(key, content);
+        }
+        return content;
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+}
@@ -0,0 +1,179 @@
+package hudson.plugins.emailext;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Tracks the health of SMTP servers, so that emails are not sent to a server which is known to be down.
+ * <p>
+ * After {@link #FAILURE_THRESHOLD} consecutive connection failures the circuit of a server opens: no connection is
+ * attempted for {@link #OPEN_MILLIS}, and emails are deferred instead. After that one email is let through as a
+ * probe (half-open); if it is sent the circuit closes again, otherwise it stays open for another period.
+ */
+@Restricted(NoExternalUse.class)
+public final class SmtpCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(SmtpCircuitBreaker.class.getName());
+
+    /**
+     * Number of consecutive failures after which the circuit opens, 0 to never open it.
+     */
+    static final int FAILURE_THRESHOLD =
+            SystemProperties.getInteger(SmtpCircuitBreaker.class.getName() + ".failureThreshold", 5);
+
+    /**
+     * How long an open circuit stays open before a probe is let through. Unit: milliseconds
+     */
+    static final long OPEN_MILLIS =
+            SystemProperties.getLong(SmtpCircuitBreaker.class.getName() + ".openMillis", 60_000L);
+
+    private static final SmtpCircuitBreaker INSTANCE =
+            new SmtpCircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, System::nanoTime);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    SmtpCircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.clock = clock;
+    }
+
+    public static SmtpCircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param account the mail account
+     * @return the SMTP server the account sends through
+     */
+    static String key(MailAccount account) {
+        return Objects.toString(account.getSmtpHost(), "localhost") + ':'
+                + Objects.toString(account.getSmtpPort(), "");
+    }
+
+    private Circuit circuit(String host) {
+        return circuits.computeIfAbsent(host, k -> new Circuit());
+    }
+
+    /**
+     * Checks whether an email may be sent to a server. If the circuit was open long enough, this lets the caller
+     * through as the probe, who must then report the outcome.
+     *
+     * @param host the SMTP server, see {@link #key(MailAccount)}
+     * @return how long the caller has to wait before trying again, zero if the email may be sent now. Unit:
+     *     milliseconds
+     */
+    public long checkAvailable(String host) {
+        if (failureThreshold <= 0) {
+            return 0;
+        }
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? 0 : circuit.checkAvailable(clock.getAsLong());
+    }
+
+    /**
+     * Records that an email was accepted by, or at least a reply was received from, the server.
+     */
+    public void recordSuccess(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit != null) {
+            circuit.success(host);
+        }
+    }
+
+    /**
+     * Records that the server could not be reached or is not available.
+     */
+    public void recordFailure(String host) {
+        if (failureThreshold > 0) {
+            circuit(host).failure(host, clock.getAsLong());
+        }
+    }
+
+    public State getState(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * @return a description of the health of every server that has been used, by server
+     */
+    public Map<String, String> getHealth() {
+        Map<String, String> health = new TreeMap<>();
+        long now = clock.getAsLong();
+        circuits.forEach((host, circuit) -> health.put(host, circuit.describe(now)));
+        return health;
+    }
+
+    private final class Circuit {
+        private volatile State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private long totalFailures;
+
+        synchronized long checkAvailable(long now) {
+            if (state == State.CLOSED) {
+                return 0;
+            }
+            // while open, openedAt is when the circuit opened; while half-open, when the probe was let through
+            long remaining = openedAt + openNanos - now;
+            if (remaining > 0) {
+                return TimeUnit.NANOSECONDS.toMillis(remaining) + 1;
+            }
+            state = State.HALF_OPEN;
+            openedAt = now;
+            return 0;
+        }
+
+        synchronized void success(String host) {
+            if (state != State.CLOSED) {
+                LOGGER.log(Level.INFO, "SMTP server {0} is available again", host);
+            }
+            state = State.CLOSED;
+            failures = 0;
+        }
+
+        synchronized void failure(String host, long now) {
+            failures++;
+            totalFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+                if (state == State.CLOSED) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "SMTP server {0} failed {1} times in a row, deferring emails to it",
+                            new Object[] {host, failures});
+                }
+                state = State.OPEN;
+                openedAt = now;
+            }
+        }
+
+        synchronized String describe(long now) {
+            return switch (state) {
+                case CLOSED -> "available, %d failures in total".formatted(totalFailures);
+                case OPEN -> "unavailable after %d failures, next probe in %d seconds"
+                        .formatted(failures, Math.max(0, TimeUnit.NANOSECONDS.toSeconds(openedAt + openNanos - now)));
+                case HALF_OPEN -> "probing after %d failures".formatted(failures);
+            };
+        }
+    }
+}
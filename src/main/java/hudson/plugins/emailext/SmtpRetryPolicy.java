@@ -0,0 +1,128 @@
+package hudson.plugins.emailext;
+
+import jakarta.mail.MessagingException;
+import java.net.SocketException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Decides when to try again to send an email after a connection error or a transient (4xx) SMTP error: the delay
+ * grows exponentially with every attempt, with some random jitter so that the emails deferred by one outage are not
+ * all retried at the same moment. Replies typically used for greylisting ({@code 421}, {@code 450} and {@code 451})
+ * are not retried before the greylisting delay has passed.
+ */
+@Restricted(NoExternalUse.class)
+public final class SmtpRetryPolicy {
+
+    private static final String PREFIX = SmtpRetryPolicy.class.getName();
+
+    /**
+     * Maximum number of attempts to send an email, including the first one.
+     */
+    static final int MAX_ATTEMPTS = SystemProperties.getInteger(PREFIX + ".maxAttempts", 5);
+
+    /**
+     * Delay before the second attempt; doubled for every further attempt. Unit: milliseconds
+     */
+    static final long INITIAL_DELAY_MILLIS = SystemProperties.getLong(PREFIX + ".initialDelayMillis", 10_000L);
+
+    /**
+     * Upper bound of the delay between two attempts. Unit: milliseconds
+     */
+    static final long MAX_DELAY_MILLIS = SystemProperties.getLong(PREFIX + ".maxDelayMillis", 10 * 60_000L);
+
+    /**
+     * No attempt is scheduled later than this after the first one. Unit: milliseconds
+     */
+    static final long DEADLINE_MILLIS = SystemProperties.getLong(PREFIX + ".deadlineMillis", 60 * 60_000L);
+
+    /**
+     * Minimum delay after a greylisting reply. Unit: milliseconds
+     */
+    static final long GREYLIST_DELAY_MILLIS = SystemProperties.getLong(PREFIX + ".greylistDelayMillis", 5 * 60_000L);
+
+    /**
+     * Fraction by which a delay is randomly shortened or lengthened.
+     */
+    private static final double JITTER = 0.2;
+
+    private static final SmtpRetryPolicy INSTANCE = new SmtpRetryPolicy(
+            MAX_ATTEMPTS,
+            INITIAL_DELAY_MILLIS,
+            MAX_DELAY_MILLIS,
+            DEADLINE_MILLIS,
+            GREYLIST_DELAY_MILLIS,
+            () -> ThreadLocalRandom.current().nextDouble());
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final long greylistDelayMillis;
+    private final DoubleSupplier random;
+
+    SmtpRetryPolicy(
+            int maxAttempts,
+            long initialDelayMillis,
+            long maxDelayMillis,
+            long deadlineMillis,
+            long greylistDelayMillis,
+            DoubleSupplier random) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.deadlineMillis = deadlineMillis;
+        this.greylistDelayMillis = greylistDelayMillis;
+        this.random = random;
+    }
+
+    public static SmtpRetryPolicy get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether sending an email may succeed when tried again: the connection failed, the server is not
+     * available, or it replied with a transient (4xx) error.
+     *
+     * @param e the exception thrown while sending the email
+     * @return true if another attempt should be made
+     */
+    static boolean isRetryable(MessagingException e) {
+        return e.getNextException() instanceof SocketException
+                || ExtendedEmailPublisher.isTransientSmtpError(e)
+                || ExtendedEmailPublisher.isServerUnavailable(e);
+    }
+
+    static boolean isGreylisting(Integer replyCode) {
+        return replyCode != null && (replyCode == 421 || replyCode == 450 || replyCode == 451);
+    }
+
+    /**
+     * Computes the delay before the next attempt.
+     *
+     * @param attempts      the number of attempts made so far
+     * @param elapsedMillis the time since the first attempt. Unit: milliseconds
+     * @param replyCode     the SMTP reply code of the last failure, or null if there was none
+     * @return the delay in milliseconds, or -1 if no further attempt should be made
+     */
+    public long nextDelay(int attempts, long elapsedMillis, Integer replyCode) {
+        if (attempts >= maxAttempts) {
+            return -1;
+        }
+        long delay = initialDelayMillis << Math.min(Math.max(0, attempts - 1), 30);
+        if (delay < 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        delay = Math.round(delay * (1 - JITTER + 2 * JITTER * random.getAsDouble()));
+        if (isGreylisting(replyCode)) {
+            delay = Math.max(delay, greylistDelayMillis);
+        }
+        if (elapsedMillis + delay > deadlineMillis) {
+            return -1;
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,400 @@
+package hudson.plugins.emailext;
+
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.model.PeriodicWork;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Bounded pool of connected (and, if configured, authenticated) SMTP {@link Transport}s, partitioned by
+ * {@link MailAccount}. A pooled transport is validated with {@code NOOP} and {@code RSET} before it is handed out
+ * again, and transports that stayed idle for too long are closed by {@link IdleEvictor}.
+ */
+@Restricted(NoExternalUse.class)
+public final class SmtpTransportPool {
+
+    private static final Logger LOGGER = Logger.getLogger(SmtpTransportPool.class.getName());
+
+    /**
+     * Maximum number of transports (leased and idle) per mail account.
+     */
+    static final int MAX_TOTAL_PER_ACCOUNT =
+            SystemProperties.getInteger(SmtpTransportPool.class.getName() + ".maxTotalPerAccount", 4);
+
+    /**
+     * Transports idle for longer than this are closed instead of being reused. Unit: milliseconds
+     */
+    static final long MAX_IDLE_MILLIS =
+            SystemProperties.getLong(SmtpTransportPool.class.getName() + ".maxIdleMillis", 60_000L);
+
+    /**
+     * How long a sender waits for a free slot when all transports of an account are in use. Unit: milliseconds
+     */
+    static final long BORROW_TIMEOUT_MILLIS =
+            SystemProperties.getLong(SmtpTransportPool.class.getName() + ".borrowTimeoutMillis", 60_000L);
+
+    private static final SmtpTransportPool INSTANCE =
+            new SmtpTransportPool(MAX_TOTAL_PER_ACCOUNT, MAX_IDLE_MILLIS, BORROW_TIMEOUT_MILLIS);
+
+    /**
+     * Opens a new connected transport; used so that tests do not need a real SMTP server.
+     */
+    interface TransportFactory {
+        Transport create() throws MessagingException;
+    }
+
+    private final int maxTotal;
+    private final long maxIdleMillis;
+    private final long borrowTimeoutMillis;
+
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final Map<Transport, Partition> leased = new ConcurrentHashMap<>();
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    SmtpTransportPool(int maxTotal, long maxIdleMillis, long borrowTimeoutMillis) {
+        this.maxTotal = Math.max(1, maxTotal);
+        this.maxIdleMillis = maxIdleMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    public static SmtpTransportPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Computes the key which identifies the configuration of an account. Two accounts with the same key connect to
+     * the same server with the same settings and the same credentials ID. The credentials the ID resolves to can
+     * differ between folders, so transports which log in are pooled by {@link #partition} instead.
+     *
+     * @param account the mail account
+     * @return the account key
+     */
+    static String key(MailAccount account) {
+        return Objects.toString(account.getSmtpHost(), "localhost")
+                + ':' + Objects.toString(account.getSmtpPort(), "")
+                + ":ssl=" + account.isUseSsl()
+                + ":tls=" + account.isUseTls()
+                + ":oauth2=" + account.isUseOAuth2()
+                + ":credentials=" + Objects.toString(account.getCredentialsId(), "")
+                + ":properties=" + Objects.toString(account.getAdvProperties(), "").hashCode();
+    }
+
+    /**
+     * Hands out a connected transport for the given account, reusing an idle one when possible.
+     * Every transport returned by this method must be passed to either {@link #release(Transport)} or
+     * {@link #invalidate(Transport)}.
+     *
+     * @param account the account the message is sent from
+     * @param session the session created for that account
+     * @param address the first recipient, used to select the transport protocol
+     * @return a connected transport
+     * @throws MessagingException if no connection could be established
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public Transport borrow(MailAccount account, Session session, Address address)
+            throws MessagingException, InterruptedException {
+        // the session looks up the credentials in the context of the build it was created for
+        PasswordAuthentication login = StringUtils.isBlank(account.getCredentialsId())
+                ? null
+                : session.requestPasswordAuthentication(null, 0, "smtp", null, null);
+        TransportFactory factory = () -> {
+            Transport transport = session.getTransport(address);
+            if (login != null) {
+                // log in with exactly the credentials the partition was chosen by
+                transport.connect(login.getUserName(), login.getPassword());
+            } else {
+                transport.connect();
+            }
+            return transport;
+        };
+        if (session.getDebug() || (login == null && !StringUtils.isBlank(account.getCredentialsId()))) {
+            // the debug output of a transport goes to the log of the build that opened it, so do not share it;
+            // without credentials for the build the connection fails as it would without a pool
+            return factory.create();
+        }
+        return borrow(partition(account, login), factory);
+    }
+
+    /**
+     * Computes the key under which transports are pooled: the configuration of the account and, if it logs in, a
+     * digest of the credentials it logs in with. Builds in different folders may resolve the same credentials ID to
+     * different credentials, and must not share a connection authenticated with the credentials of another folder.
+     *
+     * @param account the mail account
+     * @param login   the credentials resolved for the build, null if the account does not log in
+     * @return the pool key
+     */
+    static String partition(MailAccount account, PasswordAuthentication login) {
+        String key = key(account);
+        if (login == null) {
+            return key;
+        }
+        return key + ":login=" + digest(login);
+    }
+
+    /**
+     * @param login the credentials
+     * @return a digest of the credentials, which can be kept without revealing them
+     */
+    static String digest(PasswordAuthentication login) {
+        String credentials = login.getUserName() + '\0' + login.getPassword();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(credentials.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Transport borrow(String key, TransportFactory factory) throws MessagingException, InterruptedException {
+        Partition partition = partitions.computeIfAbsent(key, k -> new Partition(maxTotal));
+        if (!partition.permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new MessagingException("Timed out waiting for a free SMTP connection for " + key);
+        }
+        try {
+            borrowed.incrementAndGet();
+            Idle idle;
+            while ((idle = partition.idle.pollFirst()) != null) {
+                if (isExpired(idle) || !isReusable(idle.transport)) {
+                    evicted.incrementAndGet();
+                    closeQuietly(idle.transport);
+                    continue;
+                }
+                reused.incrementAndGet();
+                leased.put(idle.transport, partition);
+                return idle.transport;
+            }
+            Transport transport = factory.create();
+            created.incrementAndGet();
+            leased.put(transport, partition);
+            return transport;
+        } catch (MessagingException | RuntimeException e) {
+            partition.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a healthy transport to the pool after a successful conversation.
+     *
+     * @param transport a transport obtained from {@link #borrow(MailAccount, Session, Address)}
+     */
+    public void release(Transport transport) {
+        Partition partition = leased.remove(transport);
+        if (partition == null) {
+            closeQuietly(transport);
+            return;
+        }
+        partition.idle.addFirst(new Idle(transport, System.nanoTime()));
+        partition.permits.release();
+    }
+
+    /**
+     * Closes a transport that failed, instead of returning it to the pool.
+     *
+     * @param transport a transport obtained from {@link #borrow(MailAccount, Session, Address)}
+     */
+    public void invalidate(Transport transport) {
+        Partition partition = leased.remove(transport);
+        closeQuietly(transport);
+        if (partition != null) {
+            partition.permits.release();
+        }
+    }
+
+    /**
+     * Closes the transports which have been idle for longer than the configured idle time.
+     *
+     * @return the number of closed transports
+     */
+    public int evictIdle() {
+        int count = 0;
+        for (Partition partition : partitions.values()) {
+            for (Idle idle : partition.idle) {
+                if (isExpired(idle) && partition.idle.remove(idle)) {
+                    closeQuietly(idle.transport);
+                    count++;
+                }
+            }
+        }
+        evicted.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Closes all idle transports, e.g. after the mail configuration changed.
+     */
+    public void clear() {
+        for (Partition partition : partitions.values()) {
+            Idle idle;
+            while ((idle = partition.idle.pollFirst()) != null) {
+                closeQuietly(idle.transport);
+            }
+        }
+    }
+
+    public Statistics getStatistics() {
+        int idle = 0;
+        for (Partition partition : partitions.values()) {
+            idle += partition.idle.size();
+        }
+        return new Statistics(leased.size(), idle, borrowed.get(), created.get(), reused.get(), evicted.get());
+    }
+
+    private boolean isExpired(Idle idle) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idle.since) > maxIdleMillis;
+    }
+
+    /**
+     * Checks that a pooled transport can still be used. For SMTP transports {@link Transport#isConnected()} sends a
+     * {@code NOOP}; in addition the session is reset with {@code RSET} so that a previous, possibly failed,
+     * conversation does not leak into the next one.
+     */
+    private static boolean isReusable(Transport transport) {
+        if (!transport.isConnected()) {
+            return false;
+        }
+        try {
+            // SMTPTransport.issueCommand is not available at compile time
+            Method issueCommand = transport.getClass().getMethod("issueCommand", String.class, int.class);
+            issueCommand.invoke(transport, "RSET", 250);
+        } catch (NoSuchMethodException ignored) {
+            // not an SMTP transport, NOOP was good enough
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.FINE, "RSET failed on pooled SMTP transport", e);
+            return false;
+        }
+        return true;
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to close SMTP transport", e);
+        }
+    }
+
+    private static final class Partition {
+        private final Semaphore permits;
+        private final Deque<Idle> idle = new ConcurrentLinkedDeque<>();
+
+        Partition(int maxTotal) {
+            this.permits = new Semaphore(maxTotal, true);
+        }
+    }
+
+    private static final class Idle {
+        private final Transport transport;
+        private final long since;
+
+        Idle(Transport transport, long since) {
+            this.transport = transport;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Point-in-time snapshot of the pool counters.
+     */
+    public static final class Statistics {
+        private final int leased;
+        private final int idle;
+        private final long borrowed;
+        private final long created;
+        private final long reused;
+        private final long evicted;
+
+        Statistics(int leased, int idle, long borrowed, long created, long reused, long evicted) {
+            this.leased = leased;
+            this.idle = idle;
+            this.borrowed = borrowed;
+            this.created = created;
+            this.reused = reused;
+            this.evicted = evicted;
+        }
+
+        public int getLeased() {
+            return leased;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public long getBorrowed() {
+            return borrowed;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getReused() {
+            return reused;
+        }
+
+        public long getEvicted() {
+            return evicted;
+        }
+
+        @Override
+        public String toString() {
+            return "%d in use, %d idle; %d borrowed, %d opened, %d reused, %d evicted"
+                    .formatted(leased, idle, borrowed, created, reused, evicted);
+        }
+    }
+
+    /**
+     * Closes idle transports periodically, so that connections are not held open until the server drops them.
+     */
+    @Extension
+    public static final class IdleEvictor extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            int count = get().evictIdle();
+            if (count > 0) {
+                LOGGER.log(Level.FINE, "Closed {0} idle SMTP connections", count);
+            }
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+        get().clear();
+    }
+}
@@ -9,15 +9,18 @@ import hudson.plugins.emailext.ExtendedEmailPublisherContext;
 import hudson.tasks.Publisher;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import jenkins.model.Jenkins;
 import net.java.sezpoz.Index;
 import net.java.sezpoz.IndexItem;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * {@link Publisher} that sends notification e-mail.
@@ -30,15 +33,44 @@ public final class ContentBuilder {
     @CopyOnWrite
     private static volatile List<TokenMacro> privateMacros;
 
-    private static final String DEFAULT_BODY = "\\$DEFAULT_CONTENT|\\$\\{DEFAULT_CONTENT\\}";
-    private static final String DEFAULT_SUBJECT = "\\$DEFAULT_SUBJECT|\\$\\{DEFAULT_SUBJECT\\}";
-    private static final String DEFAULT_RECIPIENTS = "\\$DEFAULT_RECIPIENTS|\\$\\{DEFAULT_RECIPIENTS\\}";
-    private static final String DEFAULT_REPLYTO = "\\$DEFAULT_REPLYTO|\\$\\{DEFAULT_REPLYTO\\}";
-    private static final String DEFAULT_PRESEND_SCRIPT = "\\$DEFAULT_PRESEND_SCRIPT|\\$\\{DEFAULT_PRESEND_SCRIPT\\}";
-    private static final String DEFAULT_POSTSEND_SCRIPT = "\\$DEFAULT_POSTSEND_SCRIPT|\\$\\{DEFAULT_POSTSEND_SCRIPT\\}";
-    private static final String PROJECT_DEFAULT_BODY = "\\$PROJECT_DEFAULT_CONTENT|\\$\\{PROJECT_DEFAULT_CONTENT\\}";
-    private static final String PROJECT_DEFAULT_SUBJECT = "\\$PROJECT_DEFAULT_SUBJECT|\\$\\{PROJECT_DEFAULT_SUBJECT\\}";
-    private static final String PROJECT_DEFAULT_REPLYTO = "\\$PROJECT_DEFAULT_REPLYTO|\\$\\{PROJECT_DEFAULT_REPLYTO\\}";
+    /**
+     * The placeholders for default values, in the order they are expanded: a value may contain the placeholders
+     * following its own, e.g. the project default content usually is {@code $DEFAULT_CONTENT}.
+     */
+    private enum Placeholder {
+        PROJECT_DEFAULT_CONTENT(ExtendedEmailPublisher::getDefaultContent),
+        PROJECT_DEFAULT_SUBJECT(ExtendedEmailPublisher::getDefaultSubject),
+        PROJECT_DEFAULT_REPLYTO(ExtendedEmailPublisher::getReplyTo),
+        DEFAULT_CONTENT(publisher -> publisher.getDescriptor().getDefaultBody()),
+        DEFAULT_SUBJECT(publisher -> publisher.getDescriptor().getDefaultSubject()),
+        DEFAULT_RECIPIENTS(publisher -> publisher.getDescriptor().getDefaultRecipients()),
+        DEFAULT_REPLYTO(publisher -> publisher.getDescriptor().getDefaultReplyTo()),
+        DEFAULT_PRESEND_SCRIPT(publisher -> publisher.getDescriptor().getDefaultPresendScript()),
+        DEFAULT_POSTSEND_SCRIPT(publisher -> publisher.getDescriptor().getDefaultPostsendScript());
+
+        private static final Placeholder[] ALL = values();
+
+        private final String plain = "$" + name();
+        private final String braced = "${" + name() + "}";
+        private final Function<ExtendedEmailPublisher, String> value;
+
+        Placeholder(Function<ExtendedEmailPublisher, String> value) {
+            this.value = value;
+        }
+
+        /**
+         * @return the end of the placeholder if it starts at {@code start}, -1 otherwise
+         */
+        int match(String text, int start) {
+            if (text.startsWith(plain, start)) {
+                return start + plain.length();
+            }
+            if (text.startsWith(braced, start)) {
+                return start + braced.length();
+            }
+            return -1;
+        }
+    }
 
     private ContentBuilder() {
         throw new InstantiationError("Must not instantiate this class");
@@ -54,42 +86,23 @@ public final class ContentBuilder {
             return "";
         }
 
-        String defaultContent =
-                Matcher.quoteReplacement(noNull(context.getPublisher().getDefaultContent()));
-        String defaultSubject =
-                Matcher.quoteReplacement(noNull(context.getPublisher().getDefaultSubject()));
-        String defaultReplyTo =
-                Matcher.quoteReplacement(noNull(context.getPublisher().getReplyTo()));
-        String defaultBody = Matcher.quoteReplacement(
-                noNull(context.getPublisher().getDescriptor().getDefaultBody()));
-        String defaultExtSubject = Matcher.quoteReplacement(
-                noNull(context.getPublisher().getDescriptor().getDefaultSubject()));
-        String defaultRecipients = Matcher.quoteReplacement(
-                noNull(context.getPublisher().getDescriptor().getDefaultRecipients()));
-        String defaultExtReplyTo = Matcher.quoteReplacement(
-                noNull(context.getPublisher().getDescriptor().getDefaultReplyTo()));
-        String defaultPresendScript = Matcher.quoteReplacement(
-                noNull(context.getPublisher().getDescriptor().getDefaultPresendScript()));
-        String defaultPostsendScript = Matcher.quoteReplacement(
-                noNull(context.getPublisher().getDescriptor().getDefaultPostsendScript()));
-        String newText = origText.replaceAll(PROJECT_DEFAULT_BODY, defaultContent)
-                .replaceAll(PROJECT_DEFAULT_SUBJECT, defaultSubject)
-                .replaceAll(PROJECT_DEFAULT_REPLYTO, defaultReplyTo)
-                .replaceAll(DEFAULT_BODY, defaultBody)
-                .replaceAll(DEFAULT_SUBJECT, defaultExtSubject)
-                .replaceAll(DEFAULT_RECIPIENTS, defaultRecipients)
-                .replaceAll(DEFAULT_REPLYTO, defaultExtReplyTo)
-                .replaceAll(DEFAULT_PRESEND_SCRIPT, defaultPresendScript)
-                .replaceAll(DEFAULT_POSTSEND_SCRIPT, defaultPostsendScript);
+        String newText = expandDefaults(origText, context.getPublisher());
 
         try {
             List<TokenMacro> macros = new ArrayList<>(getPrivateMacros());
             if (additionalMacros != null) {
                 macros.addAll(additionalMacros);
             }
+            // the subject, body and recipients of an email often use the same tokens
+            macros = MemoizedTokenMacro.wrap(macros, context.getTokenValues(), context::nonCacheableTokenEvaluated);
             if (context.getRun() != null) {
-                newText = TokenMacro.expandAll(
-                        context.getRun(), context.getWorkspace(), context.getListener(), newText, false, macros);
+                Map<String, String> previous = MemoizedTokenMacro.enter(context.getTokenValues());
+                try {
+                    newText = TokenMacro.expandAll(
+                            context.getRun(), context.getWorkspace(), context.getListener(), newText, false, macros);
+                } finally {
+                    MemoizedTokenMacro.exit(previous);
+                }
             } else {
                 context.getListener().getLogger().println("Job type does not allow token replacement.");
             }
@@ -101,6 +114,45 @@ public final class ContentBuilder {
         return newText != null ? newText.trim() : "";
     }
 
+    /**
+     * Replaces the placeholders for the project and global default values in a single pass over the text. A value is
+     * only looked up if its placeholder occurs.
+     */
+    @Restricted(NoExternalUse.class)
+    public static String expandDefaults(String text, ExtendedEmailPublisher publisher) {
+        return expandDefaults(text, 0, publisher, new String[Placeholder.ALL.length]);
+    }
+
+    /**
+     * @param first    the first placeholder to expand, the ones before have already been expanded
+     * @param expanded the expanded values by placeholder, null if not looked up yet
+     */
+    private static String expandDefaults(
+            String text, int first, ExtendedEmailPublisher publisher, String[] expanded) {
+        int dollar = text.indexOf('$');
+        if (dollar < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        int copied = 0;
+        while (dollar >= 0) {
+            int end = -1;
+            for (int i = first; i < Placeholder.ALL.length && end < 0; i++) {
+                end = Placeholder.ALL[i].match(text, dollar);
+                if (end >= 0) {
+                    if (expanded[i] == null) {
+                        String value = noNull(Placeholder.ALL[i].value.apply(publisher));
+                        expanded[i] = expandDefaults(value, i + 1, publisher, expanded);
+                    }
+                    result.append(text, copied, dollar).append(expanded[i]);
+                    copied = end;
+                }
+            }
+            dollar = text.indexOf('$', end < 0 ? dollar + 1 : end);
+        }
+        return copied == 0 ? text : result.append(text, copied, text.length()).toString();
+    }
+
     @Deprecated
     public static String transformText(
             String origText, ExtendedEmailPublisher publisher, AbstractBuild<?, ?> build, BuildListener listener) {
@@ -1,13 +1,16 @@
 package hudson.plugins.emailext.plugins;
 
+import hudson.plugins.emailext.CompilationCache;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
+import jenkins.util.SystemProperties;
 import net.htmlparser.jericho.Source;
-import org.apache.commons.text.StringEscapeUtils;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Entities;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
 
 /**
  * <p>
@@ -32,6 +35,14 @@ public class CssInliner {
     public static final String STYLE_TAG = "style";
     public static final String DATA_INLINE_ATTR = "data-inline";
 
+    /**
+     * Parsed rules by stylesheet, templates usually produce the same stylesheet for every build.
+     */
+    private static final CompilationCache<List<Rule>> RULES = CompilationCache.create(
+            "CSS stylesheets",
+            SystemProperties.getInteger(CssInliner.class.getName() + ".cacheSize", 50),
+            SystemProperties.getLong(CssInliner.class.getName() + ".cacheWeight", 5_000_000L));
+
     private static String concatenateProperties(String oldProp, String newProp) {
         if (!oldProp.endsWith(";")) {
             oldProp += ";";
@@ -69,22 +80,25 @@ public class CssInliner {
      * @return the processed html document
      */
     public String process(String input) {
-        Document doc = Jsoup.parse(input);
+        return new HtmlPipeline(List.of(this::inline)).process(input, false).html();
+    }
 
+    /**
+     * Inlines the styles of a parsed html document, as a stage of an {@link HtmlPipeline}.
+     *
+     * @param doc the html document
+     * @return true if the document had styles to inline
+     */
+    public boolean inline(Document doc) {
         // check if the user wants to inline the data
         Elements elements = doc.getElementsByAttributeValue(DATA_INLINE_ATTR, "true");
         if (elements.isEmpty()) {
-            return input;
+            return false;
         }
 
         extractStyles(doc);
         applyStyles(doc);
-
-        doc.outputSettings(doc.outputSettings()
-                .syntax(Document.OutputSettings.Syntax.xml)
-                .prettyPrint(false)
-                .escapeMode(Entities.EscapeMode.extended));
-        return StringEscapeUtils.unescapeHtml4(doc.outerHtml());
+        return true;
     }
 
     /**
@@ -114,22 +128,40 @@ public class CssInliner {
      */
     private void extractStyles(Document doc) {
         String stylesheet = fetchStyles(doc);
+        List<Rule> rules = RULES.getShared("css", stylesheet, () -> parseRules(stylesheet));
+        for (Rule rule : rules) {
+            // select resets the per-traversal memo of structural selectors, Evaluator.matches alone would not
+            for (Element selElem : doc.select(rule.selector())) {
+                String oldProperties = selElem.attr(CSS_STYLE);
+                selElem.attr(
+                        CSS_STYLE,
+                        oldProperties.length() > 0
+                                ? concatenateProperties(oldProperties, rule.properties())
+                                : rule.properties());
+            }
+        }
+    }
 
+    /**
+     * Parses a stylesheet into its rules, in the order they are applied.
+     */
+    private static List<Rule> parseRules(String stylesheet) {
         String trimmedStylesheet =
                 stylesheet.replaceAll("\n", "").replaceAll("/\\*.*?\\*/", "").replaceAll(" +", " ");
         String styleRules = trimmedStylesheet.trim();
         String delims = "{}";
         StringTokenizer st = new StringTokenizer(styleRules, delims);
+        List<Rule> rules = new ArrayList<>();
         while (st.countTokens() > 1) {
             String selector = st.nextToken().trim();
             String properties = st.nextToken().trim();
-            Elements selectedElements = doc.select(selector);
-            for (Element selElem : selectedElements) {
-                String oldProperties = selElem.attr(CSS_STYLE);
-                selElem.attr(
-                        CSS_STYLE,
-                        oldProperties.length() > 0 ? concatenateProperties(oldProperties, properties) : properties);
-            }
+            rules.add(new Rule(QueryParser.parse(selector), properties));
         }
+        return List.copyOf(rules);
     }
+
+    /**
+     * A rule of a stylesheet, with its selector compiled.
+     */
+    private record Rule(Evaluator selector, String properties) {}
 }
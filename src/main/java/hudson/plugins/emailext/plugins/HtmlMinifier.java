@@ -0,0 +1,131 @@
+package hudson.plugins.emailext.plugins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+
+/**
+ * Shrinks an HTML body, as a stage of an {@link HtmlPipeline} after the {@link CssInliner}: collapses whitespace,
+ * drops comments and writes the inline styles, which the inliner repeats on many elements, in their shortest form.
+ * Only changes which do not affect how the body is displayed are made, so whitespace in {@code pre} elements and
+ * the conditional comments Outlook reads are kept.
+ */
+public class HtmlMinifier {
+
+    private static final Set<String> PRESERVE_WHITESPACE = Set.of("pre", "textarea", "script", "style");
+
+    /**
+     * Elements whose whitespace-only text is never displayed.
+     */
+    private static final Set<String> STRUCTURAL =
+            Set.of("html", "head", "table", "thead", "tbody", "tfoot", "tr", "ul", "ol", "dl", "select");
+
+    /**
+     * Shortest form by style attribute, the same style is usually repeated on many elements.
+     */
+    private final Map<String, String> styles = new HashMap<>();
+
+    /**
+     * @param doc the html document
+     * @return true if the document was modified
+     */
+    public boolean minify(Document doc) {
+        List<Node> removed = new ArrayList<>();
+        boolean[] modified = {false};
+        NodeTraversor.traverse(
+                (node, depth) -> {
+                    if (node instanceof Comment comment) {
+                        if (!isConditional(comment)) {
+                            removed.add(comment);
+                        }
+                    } else if (node instanceof TextNode text) {
+                        modified[0] |= minify(text, removed);
+                    } else if (node instanceof Element element && element.hasAttr(CssInliner.STYLE_ATTR)) {
+                        String style = element.attr(CssInliner.STYLE_ATTR);
+                        String shortest = styles.computeIfAbsent(style, HtmlMinifier::minifyStyle);
+                        if (shortest.isEmpty()) {
+                            element.removeAttr(CssInliner.STYLE_ATTR);
+                            modified[0] = true;
+                        } else if (!shortest.equals(style)) {
+                            element.attr(CssInliner.STYLE_ATTR, shortest);
+                            modified[0] = true;
+                        }
+                    }
+                },
+                doc);
+        removed.forEach(Node::remove);
+        return modified[0] || !removed.isEmpty();
+    }
+
+    private static boolean isConditional(Comment comment) {
+        String data = comment.getData().trim();
+        return data.startsWith("[if") || data.startsWith("<![endif");
+    }
+
+    private static boolean minify(TextNode text, List<Node> removed) {
+        for (Element parent = text.parent() instanceof Element e ? e : null; parent != null; parent = parent.parent()) {
+            if (PRESERVE_WHITESPACE.contains(parent.normalName())) {
+                return false;
+            }
+        }
+        if (text.isBlank()
+                && text.parent() instanceof Element parent
+                && STRUCTURAL.contains(parent.normalName())) {
+            removed.add(text);
+            return false;
+        }
+        String whole = text.getWholeText();
+        String collapsed = whole.replaceAll("[ \\t\\r\\n\\f]+", " ");
+        if (collapsed.equals(whole)) {
+            return false;
+        }
+        text.text(collapsed);
+        return true;
+    }
+
+    /**
+     * Writes a style attribute in its shortest form: without redundant whitespace and separators, and with each
+     * property only once, the declaration which takes effect.
+     */
+    static String minifyStyle(String style) {
+        if (style.contains("\"") || style.contains("'") || style.contains("(")) {
+            // semicolons in strings or urls, leave as it is
+            return style.trim();
+        }
+        Map<String, String> declarations = new LinkedHashMap<>();
+        Map<String, Boolean> important = new HashMap<>();
+        for (String declaration : style.split(";")) {
+            int colon = declaration.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String property = declaration.substring(0, colon).trim();
+            if (!property.startsWith("--")) {
+                // custom properties are case-sensitive, the others are not
+                property = property.toLowerCase(Locale.ROOT);
+            }
+            String value = declaration.substring(colon + 1).trim().replaceAll("\\s+", " ");
+            boolean isImportant = value.endsWith("!important");
+            if (important.getOrDefault(property, false) && !isImportant) {
+                // an earlier !important declaration wins over later plain ones
+                continue;
+            }
+            declarations.remove(property);
+            declarations.put(property, value);
+            important.put(property, isImportant);
+        }
+        List<String> parts = new ArrayList<>(declarations.size());
+        declarations.forEach((property, value) -> parts.add(property + ':' + value));
+        return String.join(";", parts);
+    }
+}
@@ -0,0 +1,64 @@
+package hudson.plugins.emailext.plugins;
+
+import java.util.List;
+import org.apache.commons.text.StringEscapeUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities;
+
+/**
+ * Post-processes the HTML body of an email, parsing it only once: the stages, e.g. the {@link CssInliner}, modify
+ * the parsed document, and the plain text alternative for the "both" content type is rendered from it as well.
+ */
+public final class HtmlPipeline {
+
+    /**
+     * A step of the post-processing, e.g. inlining CSS or rewriting links.
+     */
+    @FunctionalInterface
+    public interface Stage {
+        /**
+         * @param doc the parsed document, to be modified in place
+         * @return true if the document was modified
+         */
+        boolean apply(Document doc);
+    }
+
+    /**
+     * The processed body.
+     *
+     * @param html      the HTML, the input as is if no stage modified it
+     * @param plainText the plain text alternative, null if it was not requested
+     */
+    public record Result(String html, String plainText) {}
+
+    private final List<Stage> stages;
+
+    public HtmlPipeline(List<Stage> stages) {
+        this.stages = List.copyOf(stages);
+    }
+
+    /**
+     * @param input     the HTML document
+     * @param plainText true to render the plain text alternative too
+     * @return the processed document
+     */
+    public Result process(String input, boolean plainText) {
+        Document doc = Jsoup.parse(input);
+        // rendered before the stages, which may e.g. remove the whitespace the text layout depends on
+        String text = plainText ? PlainTextRenderer.render(doc) : null;
+        boolean modified = false;
+        for (Stage stage : stages) {
+            modified |= stage.apply(doc);
+        }
+        return new Result(modified ? serialize(doc) : input, text);
+    }
+
+    static String serialize(Document doc) {
+        doc.outputSettings(doc.outputSettings()
+                .syntax(Document.OutputSettings.Syntax.xml)
+                .prettyPrint(false)
+                .escapeMode(Entities.EscapeMode.extended));
+        return StringEscapeUtils.unescapeHtml4(doc.outerHtml());
+    }
+}
@@ -0,0 +1,185 @@
+package hudson.plugins.emailext.plugins;
+
+import com.google.common.collect.ListMultimap;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
+import org.jenkinsci.plugins.tokenmacro.TokenMacro;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Evaluates a token once per distinct macro name and arguments, reusing the value for the following occurrences,
+ * e.g. in the subject, the body and the recipients of the same email.
+ * <p>
+ * token-macro looks up the tokens registered as extensions before the ones passed by {@link ContentBuilder}, so
+ * extensions can not be wrapped. email-ext's own extensions whose value only depends on the build, like
+ * {@code ${FAILED_TESTS}}, call {@link #memoize(String, ListMultimap, Evaluation)} themselves; the tokens of other
+ * plugins, e.g. {@code ${BUILD_LOG}} or {@code ${CHANGES}}, are evaluated every time.
+ */
+@Restricted(NoExternalUse.class)
+public final class MemoizedTokenMacro extends TokenMacro {
+
+    /**
+     * The values of the tokens evaluated for the email whose text is being expanded on this thread.
+     */
+    private static final ThreadLocal<Map<String, String>> CURRENT = new ThreadLocal<>();
+
+    @FunctionalInterface
+    public interface Evaluation {
+        String evaluate() throws MacroEvaluationException, IOException, InterruptedException;
+    }
+
+    private final TokenMacro macro;
+    private final Map<String, String> values;
+    private final Runnable nonCacheableEvaluated;
+
+    /**
+     * @param values                the values of the evaluated tokens, null if the token is not memoized
+     * @param nonCacheableEvaluated called whenever a token which is not memoized is evaluated
+     */
+    private MemoizedTokenMacro(TokenMacro macro, Map<String, String> values, Runnable nonCacheableEvaluated) {
+        this.macro = macro;
+        this.values = values;
+        this.nonCacheableEvaluated = nonCacheableEvaluated;
+    }
+
+    /**
+     * Wraps the macros. Those marked as {@link NonCacheableToken} are evaluated every time, and reported to
+     * {@code nonCacheableEvaluated} so that whatever is rendered from them is not reused either.
+     *
+     * @param macros                the macros
+     * @param values                the values of the evaluated tokens, by macro name and arguments
+     * @param nonCacheableEvaluated called whenever a non-cacheable token is evaluated
+     * @return the wrapped macros
+     */
+    static List<TokenMacro> wrap(List<TokenMacro> macros, Map<String, String> values, Runnable nonCacheableEvaluated) {
+        List<TokenMacro> wrapped = new ArrayList<>(macros.size());
+        for (TokenMacro macro : macros) {
+            if (macro.getClass().isAnnotationPresent(NonCacheableToken.class)) {
+                wrapped.add(new MemoizedTokenMacro(macro, null, nonCacheableEvaluated));
+            } else {
+                wrapped.add(new MemoizedTokenMacro(macro, values, nonCacheableEvaluated));
+            }
+        }
+        return wrapped;
+    }
+
+    private String evaluate(
+            String macroName, ListMultimap<String, String> argumentMultimap, Evaluation evaluation)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        if (values == null) {
+            nonCacheableEvaluated.run();
+            return evaluation.evaluate();
+        }
+        return memoize(values, macroName, argumentMultimap, evaluation);
+    }
+
+    /**
+     * Makes the values of an email's tokens available to {@link #memoize(String, ListMultimap, Evaluation)} while its
+     * text is expanded on the current thread.
+     *
+     * @param values the values of the evaluated tokens, by macro name and arguments
+     * @return the values made available before, to be passed to {@link #exit(Map)}
+     */
+    static Map<String, String> enter(Map<String, String> values) {
+        Map<String, String> previous = CURRENT.get();
+        CURRENT.set(values);
+        return previous;
+    }
+
+    static void exit(Map<String, String> previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Evaluates a token of an extension, reusing its value if it was evaluated for the same email before. Outside of
+     * {@link ContentBuilder}, e.g. when a token is expanded by another plugin, the token is always evaluated.
+     *
+     * @param macroName        the name of the token
+     * @param argumentMultimap the arguments of the token
+     * @param evaluation       evaluates the token
+     * @return the value of the token
+     */
+    public static String memoize(String macroName, ListMultimap<String, String> argumentMultimap, Evaluation evaluation)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        Map<String, String> values = CURRENT.get();
+        if (values == null) {
+            return evaluation.evaluate();
+        }
+        return memoize(values, macroName, argumentMultimap, evaluation);
+    }
+
+    private static String memoize(
+            Map<String, String> values,
+            String macroName,
+            ListMultimap<String, String> argumentMultimap,
+            Evaluation evaluation)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        String key = argumentMultimap == null ? macroName : macroName + new TreeMap<>(argumentMultimap.asMap());
+        // not computeIfAbsent, evaluating a token may expand others
+        String value = values.get(key);
+        if (value == null) {
+            value = evaluation.evaluate();
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean acceptsMacroName(String macroName) {
+        return macro.acceptsMacroName(macroName);
+    }
+
+    @Override
+    public List<String> getAcceptedMacroNames() {
+        return macro.getAcceptedMacroNames();
+    }
+
+    @Override
+    public boolean hasNestedContent() {
+        return macro.hasNestedContent();
+    }
+
+    @Override
+    public String evaluate(
+            AbstractBuild<?, ?> build,
+            TaskListener listener,
+            String macroName,
+            Map<String, String> arguments,
+            ListMultimap<String, String> argumentMultimap)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        return evaluate(
+                macroName,
+                argumentMultimap,
+                () -> macro.evaluate(build, listener, macroName, arguments, argumentMultimap));
+    }
+
+    @Override
+    public String evaluate(
+            Run<?, ?> run,
+            FilePath workspace,
+            TaskListener listener,
+            String macroName,
+            Map<String, String> arguments,
+            ListMultimap<String, String> argumentMultimap)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        return evaluate(
+                macroName,
+                argumentMultimap,
+                () -> macro.evaluate(run, workspace, listener, macroName, arguments, argumentMultimap));
+    }
+}
@@ -0,0 +1,18 @@
+package hudson.plugins.emailext.plugins;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a token whose value may differ each time it is evaluated for the same email, so that
+ * {@link ContentBuilder} evaluates it every time it occurs instead of reusing its first value.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+@Documented
+public @interface NonCacheableToken {
+    /* we don't need anything in here, just the annotation itself */
+}
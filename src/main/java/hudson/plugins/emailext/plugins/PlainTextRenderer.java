@@ -0,0 +1,144 @@
+package hudson.plugins.emailext.plugins;
+
+import java.util.Set;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+
+/**
+ * Renders a parsed HTML document as plain text, keeping its line structure: blocks start on a new line, paragraphs,
+ * headings and tables are separated by a blank line, list items are bulleted, table cells are separated by tabs and
+ * links are followed by their target.
+ */
+final class PlainTextRenderer implements NodeFilter {
+
+    private static final Set<String> SKIPPED = Set.of("head", "title", "script", "style", "noscript", "template");
+    private static final Set<String> PARAGRAPHS =
+            Set.of("p", "h1", "h2", "h3", "h4", "h5", "h6", "table", "pre", "blockquote", "ul", "ol", "dl", "hr");
+    private static final Set<String> BLOCKS = Set.of(
+            "address", "article", "aside", "center", "dd", "div", "dt", "fieldset", "figcaption", "figure", "footer",
+            "form", "header", "li", "main", "nav", "section", "tr");
+
+    private final StringBuilder out = new StringBuilder();
+    private int preformatted;
+
+    private PlainTextRenderer() {}
+
+    static String render(Document doc) {
+        PlainTextRenderer renderer = new PlainTextRenderer();
+        NodeTraversor.filter(renderer, doc.body());
+        return renderer.finish();
+    }
+
+    @Override
+    public FilterResult head(Node node, int depth) {
+        if (node instanceof TextNode text) {
+            appendText(text.getWholeText());
+        } else if (node instanceof Element element) {
+            String name = element.normalName();
+            if (SKIPPED.contains(name)) {
+                return FilterResult.SKIP_ENTIRELY;
+            }
+            if (PARAGRAPHS.contains(name)) {
+                blankLine();
+            } else if (BLOCKS.contains(name)) {
+                lineBreak();
+            }
+            switch (name) {
+                case "br" -> {
+                    trimTrailingSpace();
+                    out.append('\n');
+                }
+                case "hr" -> out.append("----");
+                case "li" -> out.append("* ");
+                case "td", "th" -> {
+                    if (element.elementSiblingIndex() > 0) {
+                        trimTrailingSpace();
+                        out.append('\t');
+                    }
+                }
+                case "pre" -> preformatted++;
+                default -> {}
+            }
+        }
+        return FilterResult.CONTINUE;
+    }
+
+    @Override
+    public FilterResult tail(Node node, int depth) {
+        if (node instanceof Element element) {
+            String name = element.normalName();
+            if ("a".equals(name)) {
+                String href = element.attr("href");
+                if (!href.isEmpty()
+                        && !href.startsWith("#")
+                        && !href.startsWith("javascript:")
+                        && !href.equals(element.text())) {
+                    out.append(" <").append(href).append('>');
+                }
+            } else if ("pre".equals(name)) {
+                preformatted--;
+            }
+            if (PARAGRAPHS.contains(name)) {
+                blankLine();
+            } else if (BLOCKS.contains(name)) {
+                lineBreak();
+            }
+        }
+        return FilterResult.CONTINUE;
+    }
+
+    private void appendText(String text) {
+        if (preformatted > 0) {
+            out.append(text);
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                // collapse whitespace like a browser does
+                if (!atLineStart() && out.charAt(out.length() - 1) != ' ') {
+                    out.append(' ');
+                }
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private boolean atLineStart() {
+        if (out.isEmpty()) {
+            return true;
+        }
+        char last = out.charAt(out.length() - 1);
+        return last == '\n' || last == '\t';
+    }
+
+    private void trimTrailingSpace() {
+        while (!out.isEmpty() && out.charAt(out.length() - 1) == ' ') {
+            out.setLength(out.length() - 1);
+        }
+    }
+
+    private void lineBreak() {
+        trimTrailingSpace();
+        if (!out.isEmpty() && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    private void blankLine() {
+        lineBreak();
+        int length = out.length();
+        if (length > 0 && (length < 2 || out.charAt(length - 2) != '\n')) {
+            out.append('\n');
+        }
+    }
+
+    private String finish() {
+        return out.toString().replaceAll("(?m)[ \t]+$", "").strip();
+    }
+}
@@ -23,29 +23,23 @@
  */
 package hudson.plugins.emailext.plugins.content;
 
-import hudson.ExtensionList;
 import hudson.FilePath;
 import hudson.Plugin;
 import hudson.model.AbstractBuild;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.emailext.ExtendedEmailPublisher;
+import hudson.plugins.emailext.ManagedTemplates;
 import hudson.remoting.VirtualChannel;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.List;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FilenameUtils;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
-import org.jenkinsci.lib.configprovider.model.Config;
-import org.jenkinsci.plugins.configfiles.ConfigFiles;
-import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
 import org.jenkinsci.plugins.scriptsecurity.scripts.Language;
 import org.jenkinsci.plugins.scriptsecurity.scripts.ScriptApproval;
 import org.jenkinsci.plugins.tokenmacro.DataBoundTokenMacro;
@@ -95,8 +89,8 @@ public abstract class AbstractEvalContent extends DataBoundTokenMacro {
     protected InputStream getFileInputStream(Run<?, ?> run, FilePath workspace, String fileName, String extension)
             throws IOException, InterruptedException {
 
-        InputStream inputStream = null;
         if (fileName.startsWith("managed:")) {
+            InputStream inputStream;
             String managedFileName = fileName.substring(8);
             try {
                 inputStream = getManagedFile(run, managedFileName);
@@ -119,37 +113,15 @@ public abstract class AbstractEvalContent extends DataBoundTokenMacro {
 
         // next we look in the workspace, this means the filename is relative to the root of the workspace
         if (workspace != null) {
-            FilePath file = workspace.child(fileName);
-            if (file.exists() && isChildOf(file, workspace)) { // Guard against .. escapes
-                inputStream = new UserProvidedContentInputStream(file.read());
+            // a single round-trip, which also guards against .. escapes
+            byte[] content = workspace.act(new TemplateLocations.ReadWorkspaceTemplate(fileName));
+            if (content != null) {
+                return new UserProvidedContentInputStream(new ByteArrayInputStream(content));
             }
         }
 
-        if (inputStream == null) {
-            inputStream =
-                    getClass().getClassLoader().getResourceAsStream("hudson/plugins/emailext/templates/" + fileName);
-
-            if (inputStream == null) {
-                File templateFile = new File(scriptsFolder(), fileName);
-
-                // the file may have an extension, but not the correct one
-                if (!templateFile.exists()) {
-                    fileName += extension;
-                    templateFile = new File(scriptsFolder(), fileName);
-                }
-
-                if (!templateFile.exists() || !isChildOf(new FilePath(templateFile), new FilePath(scriptsFolder()))) {
-                    // guard against .. escapes
-                    throw new FileNotFoundException(
-                            fileName); // Say whatever the user provided so we don't leak any information about the
-                    // filesystem, but generateMissingFile should cover us.
-                } else {
-                    inputStream = new FileInputStream(templateFile);
-                }
-            }
-        }
-
-        return inputStream;
+        // then in the plugin resources and $JENKINS_HOME/email-templates, where templates rarely change
+        return TemplateLocations.open(getClass().getClassLoader(), scriptsFolder(), fileName, extension);
     }
 
     @Restricted(NoExternalUse.class)
@@ -160,22 +132,13 @@ public abstract class AbstractEvalContent extends DataBoundTokenMacro {
     }
 
     private InputStream getManagedFile(Run<?, ?> run, String fileName) {
-        InputStream stream;
         Plugin plugin = Jenkins.get().getPlugin("config-file-provider");
         if (plugin != null) {
-            Config config = null;
-            List<Config> configs =
-                    ConfigFiles.getConfigsInContext(run.getParent().getParent(), getProviderClass());
-            for (Config c : configs) {
-                if (c.name.equalsIgnoreCase(fileName)) {
-                    config = c;
-                    break;
-                }
-            }
-
-            if (config != null) {
-                stream = new ByteArrayInputStream(config.content.getBytes(StandardCharsets.UTF_8));
-                if (ExtensionList.lookupSingleton(GlobalConfigFiles.class).getById(config.id) == config) {
+            ManagedTemplates.Template template =
+                    ManagedTemplates.find(run.getParent().getParent(), getProviderClass(), fileName);
+            if (template != null) {
+                InputStream stream = template.open();
+                if (template.global()) {
                     // the config is in the Global configuration not a folder - so it is approved by virtue of only
                     // being modified by an admin
                     return stream;
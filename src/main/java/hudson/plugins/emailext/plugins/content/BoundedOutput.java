@@ -0,0 +1,102 @@
+package hudson.plugins.emailext.plugins.content;
+
+import hudson.plugins.emailext.groovy.sandbox.SimpleTemplateEngine;
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+
+/**
+ * Buffers for the output of templates which abort the rendering as soon as the output exceeds
+ * {@link SimpleTemplateEngine#MAX_EXPANDED_SIZE_BYTES}, instead of after the whole output has been produced.
+ */
+final class BoundedOutput {
+
+    private BoundedOutput() {}
+
+    /**
+     * Thrown from a write that exceeds the limit. Unchecked, so that it is not swallowed by the
+     * {@link java.io.PrintWriter} templates write to.
+     */
+    static final class LimitExceededException extends RuntimeException {
+        LimitExceededException(long limit) {
+            super("Template output exceeds the maximum size of " + limit + " bytes, see "
+                    + SimpleTemplateEngine.class.getName() + ".MAX_EXPANDED_SIZE_BYTES");
+        }
+    }
+
+    private static long limit() {
+        int limit = SimpleTemplateEngine.MAX_EXPANDED_SIZE_BYTES;
+        return limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    /**
+     * Character output, counting each character as one byte.
+     */
+    static final class Chars extends Writer {
+        private final StringBuilder buffer = new StringBuilder(16 * 1024);
+        private final long limit = limit();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            ensureCapacity(len);
+            buffer.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            ensureCapacity(len);
+            buffer.append(str, off, off + len);
+        }
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(1);
+            buffer.append((char) c);
+        }
+
+        private void ensureCapacity(int len) {
+            if (buffer.length() + (long) len > limit) {
+                throw new LimitExceededException(limit);
+            }
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public String toString() {
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Byte output.
+     */
+    static final class Bytes extends ByteArrayOutputStream {
+        private final long limit = limit();
+
+        Bytes() {
+            super(16 * 1024);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(int len) {
+            if (count + (long) len > limit) {
+                throw new LimitExceededException(limit);
+            }
+        }
+    }
+}
@@ -5,16 +5,17 @@ import hudson.FilePath;
 import hudson.model.Item;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.plugins.emailext.CompilationCache;
 import hudson.plugins.emailext.ExtendedEmailPublisherDescriptor;
 import hudson.plugins.emailext.JellyTemplateConfig.JellyTemplateConfigProvider;
 import hudson.plugins.emailext.plugins.EmailToken;
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
@@ -36,6 +37,14 @@ public class JellyScriptContent extends AbstractEvalContent {
     private static final String DEFAULT_TEMPLATE_NAME = DEFAULT_HTML_TEMPLATE_NAME;
     public static final String JELLY_EXTENSION = ".jelly";
 
+    /**
+     * Compiled templates, so that the same template is not parsed again for every build.
+     */
+    private static final CompilationCache<Script> SCRIPTS = CompilationCache.create(
+            "Jelly templates",
+            SystemProperties.getInteger(JellyScriptContent.class.getName() + ".cacheSize", 100),
+            SystemProperties.getLong(JellyScriptContent.class.getName() + ".cacheWeight", 10_000_000L));
+
     @Parameter
     public String template = DEFAULT_TEMPLATE_NAME;
 
@@ -74,7 +83,11 @@ public class JellyScriptContent extends AbstractEvalContent {
         }
 
         JellyContext context = createContext(new ScriptContentBuildWrapper(build), build, listener);
-        Script script = context.compileScript(new InputSource(new StringReader(rawScript)));
+        // templates from the workspace or a folder are specific to the job
+        String location = inputStream instanceof UserProvidedContentInputStream
+                ? build.getParent().getFullName() + '/' + template
+                : template;
+        Script script = compile(location, rawScript);
 
         if (script != null) {
             return convert(build, context, script);
@@ -82,8 +95,32 @@ public class JellyScriptContent extends AbstractEvalContent {
         return null;
     }
 
+    /**
+     * Returns the compiled form of a template, compiling it if it is not cached.
+     *
+     * @param location  where the template comes from, see {@link #renderContent}
+     * @param rawScript the template
+     * @return the compiled template
+     */
+    static Script compile(String location, String rawScript) throws JellyException {
+        // compiled with a context of its own, so that the cached script does not hold on to the build
+        return SCRIPTS.get(location, rawScript, () -> new JellyContext()
+                .compileScript(new InputSource(new StringReader(rawScript))));
+    }
+
+    /**
+     * Caches a template compiled for another location, e.g. the same file referred to without its extension.
+     *
+     * @param location  where the template comes from, see {@link #renderContent}
+     * @param rawScript the template
+     * @param script    the compiled template
+     */
+    static void cache(String location, String rawScript, Script script) {
+        SCRIPTS.get(location, rawScript, () -> script);
+    }
+
     private String convert(Run<?, ?> build, JellyContext context, Script script) throws JellyTagException, IOException {
-        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+        BoundedOutput.Bytes output = new BoundedOutput.Bytes();
         XMLOutput xmlOutput = XMLOutput.createXMLOutput(output);
         script.run(context, xmlOutput);
         xmlOutput.flush();
@@ -12,6 +12,8 @@ import hudson.Functions;
 import hudson.model.Item;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.plugins.emailext.CompilationCache;
+import hudson.plugins.emailext.CompiledScripts;
 import hudson.plugins.emailext.ExtendedEmailPublisherDescriptor;
 import hudson.plugins.emailext.GroovyTemplateConfig.GroovyTemplateConfigProvider;
 import hudson.plugins.emailext.groovy.sandbox.EmailExtScriptTokenMacroWhitelist;
@@ -19,14 +21,13 @@ import hudson.plugins.emailext.groovy.sandbox.PrintStreamInstanceWhitelist;
 import hudson.plugins.emailext.groovy.sandbox.StaticProxyInstanceWhitelist;
 import hudson.plugins.emailext.groovy.sandbox.TaskListenerInstanceWhitelist;
 import hudson.plugins.emailext.plugins.EmailToken;
+import hudson.plugins.emailext.plugins.NonCacheableToken;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,6 +35,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.groovy.control.CompilerConfiguration;
@@ -47,7 +49,9 @@ import org.jenkinsci.plugins.scriptsecurity.scripts.ScriptApproval;
 import org.jenkinsci.plugins.scriptsecurity.scripts.languages.GroovyLanguage;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 
+// scripts may have side effects or produce a different result every time, so each occurrence runs the script
 @EmailToken
+@NonCacheableToken
 public class ScriptContent extends AbstractEvalContent {
 
     private static final Logger LOGGER = Logger.getLogger(ScriptContent.class.getName());
@@ -62,7 +66,13 @@ public class ScriptContent extends AbstractEvalContent {
 
     public static final String MACRO_NAME = "SCRIPT";
 
-    private static final Map<String, Reference<Template>> templateCache = new HashMap<>();
+    /**
+     * Compiled templates, by template and whether they run in the sandbox.
+     */
+    private static final CompilationCache<Template> TEMPLATES = CompilationCache.create(
+            "Groovy templates",
+            SystemProperties.getInteger(ScriptContent.class.getName() + ".templateCacheSize", 100),
+            SystemProperties.getLong(ScriptContent.class.getName() + ".templateCacheWeight", 10_000_000L));
 
     public ScriptContent() {
         super(MACRO_NAME);
@@ -148,28 +158,15 @@ public class ScriptContent extends AbstractEvalContent {
             } else {
                 approvedScript = true;
             }
-            // we add the binding to the SimpleTemplateEngine instead of the shell
-            GroovyShell shell = createEngine(descriptor, Collections.emptyMap(), !approvedScript);
-            TemplateEngine engine;
-            if (!approvedScript) {
-                engine = new hudson.plugins.emailext.groovy.sandbox.SimpleTemplateEngine(shell, true);
-            } else {
-                engine = new SimpleTemplateEngine(shell);
-            }
-            Template tmpl;
-            synchronized (templateCache) {
-                final String key = text + ":" + approvedScript;
-                Reference<Template> templateR = templateCache.get(key);
-                tmpl = templateR == null ? null : templateR.get();
-                if (tmpl == null) {
-                    tmpl = engine.createTemplate(text);
-                    templateCache.put(key, new SoftReference<>(tmpl));
-                }
-            }
-            final Template tmplR = tmpl;
+            // templates from the workspace or a folder are specific to the job
+            String location = (templateStream instanceof UserProvidedContentInputStream
+                            ? build.getParent().getFullName() + '/' + template
+                            : template)
+                    + (approvedScript ? ":approved" : ":sandboxed");
+            final Template tmplR = compileTemplate(location, text, !approvedScript);
             if (approvedScript) {
                 // The script has been approved by an admin, so run it as is
-                result = tmplR.make(binding).toString();
+                result = render(tmplR, binding);
             } else {
                 // unapproved script, so run in sandbox
                 ProxyWhitelist sandboxWhitelist = new ProxyWhitelist(
@@ -182,13 +179,15 @@ public class ScriptContent extends AbstractEvalContent {
                 EmailExtScriptTokenMacroWhitelist.beginExecution(build, listener);
                 try (GroovySandbox.Scope scope =
                         new GroovySandbox().withWhitelist(sandboxWhitelist).enter()) {
-                    // `out` is a PrintWriter over StringWriter in this rendering path; no explicit close needed.
-                    result = tmplR.make(binding).toString();
+                    result = render(tmplR, binding);
                 } finally {
                     EmailExtScriptTokenMacroWhitelist.endExecution();
                 }
             }
-        } catch (RuntimeException | IOException | ClassNotFoundException e) {
+        } catch (BoundedOutput.LimitExceededException e) {
+            LOGGER.log(Level.WARNING, "Aborted template rendering: {0}", e.getMessage());
+            result = "Template rendering aborted: " + e.getMessage();
+        } catch (RuntimeException | IOException e) {
             LOGGER.log(Level.WARNING, "Exception raised during template rendering", e);
             StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(sw);
@@ -198,6 +197,15 @@ public class ScriptContent extends AbstractEvalContent {
         return result;
     }
 
+    /**
+     * Renders a template into a buffer which aborts the rendering once the output gets too large.
+     */
+    private static String render(Template template, Map<String, Object> binding) throws IOException {
+        BoundedOutput.Chars output = new BoundedOutput.Chars();
+        template.make(binding).writeTo(output);
+        return output.toString();
+    }
+
     /**
      * Executes a script and returns the last value as a String
      *
@@ -235,12 +243,12 @@ public class ScriptContent extends AbstractEvalContent {
         if (scriptStream instanceof UserProvidedContentInputStream
                 && !AbstractEvalContent.isApprovedScript(scriptContent, GroovyLanguage.get())) {
             // Unapproved script, run it in the sandbox
-            GroovyShell shell = createEngine(descriptor, binding, true);
+            Class<? extends Script> type = compileScript(scriptContent, true);
             EmailExtScriptTokenMacroWhitelist.beginExecution(build, listener);
             try {
-                Object res = GroovySandbox.run(
-                        shell,
-                        scriptContent,
+                Object res = CompiledScripts.runInSandbox(
+                        type,
+                        createBinding(binding),
                         new ProxyWhitelist(
                                 Whitelist.all(),
                                 new PrintStreamInstanceWhitelist(logger),
@@ -256,9 +264,8 @@ public class ScriptContent extends AbstractEvalContent {
                 ScriptApproval.get().using(scriptContent, GroovyLanguage.get());
             }
             // Pre approved script, so run as is
-            GroovyShell shell = createEngine(descriptor, binding, false);
-            Script script = shell.parse(scriptContent);
-            Object res = script.run();
+            Class<? extends Script> type = compileScript(scriptContent, false);
+            Object res = CompiledScripts.run(type, createBinding(binding));
             if (res != null) {
                 result = res.toString();
             }
@@ -267,6 +274,46 @@ public class ScriptContent extends AbstractEvalContent {
         return result;
     }
 
+    /**
+     * Returns the compiled form of a template, compiling it if it is not cached.
+     *
+     * @param location  where the template comes from and whether it runs in the sandbox, see {@link #renderTemplate}
+     * @param text      the template
+     * @param sandboxed true if the template has to run in the sandbox
+     * @return the compiled template
+     */
+    static Template compileTemplate(String location, String text, boolean sandboxed) throws IOException {
+        return TEMPLATES.get(location, text, () -> createTemplate(text, sandboxed));
+    }
+
+    /**
+     * Caches a template compiled for another location, e.g. the same file referred to without its extension.
+     *
+     * @param location where the template comes from and whether it runs in the sandbox, see {@link #renderTemplate}
+     * @param text     the template
+     * @param template the compiled template
+     */
+    static void cacheTemplate(String location, String text, Template template) {
+        TEMPLATES.get(location, text, () -> template);
+    }
+
+    @SuppressWarnings("lgtm[jenkins/unsafe-classes]")
+    static Template createTemplate(String text, boolean sandboxed) throws IOException {
+        // we add the binding to the SimpleTemplateEngine instead of the shell
+        GroovyShell shell = createEngine(Collections.emptyMap(), sandboxed);
+        TemplateEngine engine;
+        if (sandboxed) {
+            engine = new hudson.plugins.emailext.groovy.sandbox.SimpleTemplateEngine(shell, true);
+        } else {
+            engine = new SimpleTemplateEngine(shell);
+        }
+        try {
+            return engine.createTemplate(text);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Creates an engine (GroovyShell) to be used to execute Groovy code
      *
@@ -274,27 +321,38 @@ public class ScriptContent extends AbstractEvalContent {
      * @return a GroovyShell instance
      */
     @SuppressWarnings("lgtm[jenkins/unsafe-classes]")
-    private GroovyShell createEngine(
-            ExtendedEmailPublisherDescriptor descriptor, Map<String, Object> variables, boolean secure) {
-
-        ClassLoader cl;
-        CompilerConfiguration cc;
-        if (secure) {
-            cl = GroovySandbox.createSecureClassLoader(Jenkins.get().getPluginManager().uberClassLoader);
-            cc = GroovySandbox.createSecureCompilerConfiguration();
-        } else {
-            cl = Jenkins.get().getPluginManager().uberClassLoader;
-            cc = new CompilerConfiguration();
-        }
+    private static GroovyShell createEngine(Map<String, Object> variables, boolean secure) {
+        return new GroovyShell(getClassLoader(secure), createBinding(variables), getCompilerConfiguration(secure));
+    }
+
+    /**
+     * Returns the class of a script, compiled with the same configuration as {@link #createEngine} uses.
+     */
+    static Class<? extends Script> compileScript(String scriptContent, boolean secure) {
+        return CompiledScripts.compile(
+                scriptContent, getClassLoader(secure), "", secure, getCompilerConfiguration(secure));
+    }
+
+    private static ClassLoader getClassLoader(boolean secure) {
+        ClassLoader cl = Jenkins.get().getPluginManager().uberClassLoader;
+        return secure ? GroovySandbox.createSecureClassLoader(cl) : cl;
+    }
+
+    private static CompilerConfiguration getCompilerConfiguration(boolean secure) {
+        CompilerConfiguration cc =
+                secure ? GroovySandbox.createSecureCompilerConfiguration() : new CompilerConfiguration();
         cc.setScriptBaseClass(EmailExtScript.class.getCanonicalName());
         cc.addCompilationCustomizers(
                 new ImportCustomizer().addStarImports("jenkins", "jenkins.model", "hudson", "hudson.model"));
+        return cc;
+    }
 
+    private static Binding createBinding(Map<String, Object> variables) {
         Binding binding = new Binding();
         for (Map.Entry<String, Object> e : variables.entrySet()) {
             binding.setVariable(e.getKey(), e.getValue());
         }
-        return new GroovyShell(cl, binding, cc);
+        return binding;
     }
 
     @Override
@@ -0,0 +1,157 @@
+package hudson.plugins.emailext.plugins.content;
+
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers where templates outside the workspace were found, i.e. in the plugin resources or in
+ * {@code $JENKINS_HOME/email-templates}, and which were not found at all. An entry is revalidated with the last
+ * modified stamp of the template file, or for a missing template with that of the directory it would be in, so
+ * templates which are added, changed or deleted are noticed without probing every location again.
+ */
+final class TemplateLocations {
+
+    static final String RESOURCE_PREFIX = "hudson/plugins/emailext/templates/";
+
+    private static final int MAX_ENTRIES =
+            SystemProperties.getInteger(TemplateLocations.class.getName() + ".cacheSize", 500);
+
+    private static final Map<String, Location> LOCATIONS =
+            Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private TemplateLocations() {}
+
+    /**
+     * Opens a template from the plugin resources or the templates folder.
+     *
+     * @param loader    the class loader of the plugin resources
+     * @param folder    the templates folder
+     * @param fileName  the name of the template
+     * @param extension the default extension, tried if there is no file with the name as is
+     * @return the template
+     * @throws FileNotFoundException if there is no such template, with just the name as the message
+     */
+    static InputStream open(ClassLoader loader, File folder, String fileName, String extension) throws IOException {
+        Location location = locate(loader, folder, fileName, extension);
+        if (location.resource() != null) {
+            return location.resource().openStream();
+        }
+        if (location.found()) {
+            try {
+                return new FileInputStream(location.file());
+            } catch (FileNotFoundException e) {
+                // deleted since it was located
+                LOCATIONS.remove(key(folder, fileName, extension));
+            }
+        }
+        // Say whatever the user provided so we don't leak any information about the filesystem
+        throw new FileNotFoundException(location.name());
+    }
+
+    static Location locate(ClassLoader loader, File folder, String fileName, String extension) {
+        String key = key(folder, fileName, extension);
+        Location location = LOCATIONS.get(key);
+        if (location == null || !location.isCurrent()) {
+            location = resolve(loader, folder, fileName, extension);
+            LOCATIONS.put(key, location);
+        }
+        return location;
+    }
+
+    private static Location resolve(ClassLoader loader, File folder, String fileName, String extension) {
+        URL resource = loader.getResource(RESOURCE_PREFIX + fileName);
+        if (resource != null) {
+            return new Location(fileName, resource, null, true, 0);
+        }
+
+        File templateFile = new File(folder, fileName);
+        // the file may have an extension, but not the correct one
+        if (!templateFile.exists()) {
+            fileName += extension;
+            templateFile = new File(folder, fileName);
+        }
+
+        // guard against .. escapes
+        Path child = ReadWorkspaceTemplate.resolveChild(folder, fileName);
+        if (child == null || !Files.isRegularFile(child)) {
+            File directory = templateFile.getParentFile();
+            return new Location(fileName, null, directory, false, directory.lastModified());
+        }
+        return new Location(fileName, null, templateFile, true, templateFile.lastModified());
+    }
+
+    private static String key(File folder, String fileName, String extension) {
+        return folder.getPath() + '\0' + fileName + '\0' + extension;
+    }
+
+    static void clear() {
+        LOCATIONS.clear();
+    }
+
+    /**
+     * Where a template was found, or that it was not found.
+     *
+     * @param name         the name the template was looked up with, including the extension that was tried last
+     * @param resource     the plugin resource of the template, null if it is not bundled with the plugin
+     * @param file         the template file, or if the template was not found the directory it would be in
+     * @param found        whether the template exists
+     * @param lastModified the last modified stamp of {@code file}
+     */
+    record Location(String name, URL resource, File file, boolean found, long lastModified) {
+        boolean isCurrent() {
+            // plugin resources only change with the plugin itself
+            return resource != null || file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Reads a template from the workspace in a single round-trip to the agent, returning null if it does not exist
+     * or is not inside the workspace.
+     */
+    static final class ReadWorkspaceTemplate extends MasterToSlaveFileCallable<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileName;
+
+        ReadWorkspaceTemplate(String fileName) {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public byte[] invoke(File workspace, VirtualChannel channel) throws IOException {
+            Path file = resolveChild(workspace, fileName);
+            return file != null && Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+        }
+
+        /**
+         * @return the path of {@code fileName} relative to {@code parent}, null if it is not inside {@code parent}
+         */
+        static Path resolveChild(File parent, String fileName) {
+            try {
+                Path root = parent.toPath().toAbsolutePath().normalize();
+                Path child = root.resolve(fileName).normalize();
+                return child.startsWith(root) && !child.equals(root) ? child : null;
+            } catch (InvalidPathException e) {
+                return null;
+            }
+        }
+    }
+}
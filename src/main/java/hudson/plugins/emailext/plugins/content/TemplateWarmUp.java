@@ -0,0 +1,222 @@
+package hudson.plugins.emailext.plugins.content;
+
+import groovy.text.Template;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.plugins.emailext.GroovyTemplateConfig.GroovyTemplateConfigProvider;
+import hudson.plugins.emailext.JellyTemplateConfig.JellyTemplateConfigProvider;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.jelly.Script;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jenkinsci.plugins.configfiles.ConfigFiles;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Compiles the templates known at startup into the caches of {@link JellyScriptContent} and {@link ScriptContent}, so
+ * that the builds finishing right after a restart do not all wait for the same compilations. These are the templates
+ * bundled with the plugin, those in {@code $JENKINS_HOME/email-templates} and the global managed templates; templates
+ * from workspaces and folders are specific to a job and compiled on first use.
+ */
+@Restricted(NoExternalUse.class)
+public final class TemplateWarmUp {
+
+    private static final Logger LOGGER = Logger.getLogger(TemplateWarmUp.class.getName());
+
+    /**
+     * Whether to skip the warm-up, e.g. because there are many templates of which only a few are used.
+     */
+    static final boolean DISABLED = SystemProperties.getBoolean(TemplateWarmUp.class.getName() + ".disabled");
+
+    private static final List<String> BUNDLED_TEMPLATES = List.of(
+            "html.jelly",
+            "html_gmail.jelly",
+            "html-with-health-and-console.jelly",
+            "static-analysis.jelly",
+            "text.jelly",
+            "groovy-html.template",
+            "groovy-html-larry.template",
+            "groovy-text.template");
+
+    private enum Kind {
+        JELLY,
+        GROOVY_TEMPLATE,
+        GROOVY_SCRIPT
+    }
+
+    /**
+     * A template to compile.
+     *
+     * @param kind      how the template is compiled
+     * @param text      the template
+     * @param locations the names it may be referred to with, the first one is used in log messages
+     */
+    private record Source(Kind kind, String text, List<String> locations) {}
+
+    private TemplateWarmUp() {}
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void start() {
+        if (DISABLED) {
+            return;
+        }
+        Thread thread = new NamingThreadFactory(new DaemonThreadFactory(), "email-ext template warm-up")
+                .newThread(TemplateWarmUp::warmUp);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Compiles all known templates.
+     *
+     * @return the number of templates which failed to compile
+     */
+    static int warmUp() {
+        long start = System.nanoTime();
+        List<Source> sources = new ArrayList<>();
+        addBundledTemplates(sources);
+        addTemplatesFolder(sources);
+        try {
+            addManagedTemplates(sources);
+        } catch (NoClassDefFoundError e) {
+            // config-file-provider is not installed
+        }
+        LOGGER.log(Level.INFO, "Compiling {0} email templates", sources.size());
+
+        int failed = 0;
+        try {
+            // loads the classes of the sandbox, which templates from workspaces and folders run in
+            ScriptContent.createTemplate("", true);
+        } catch (IOException | RuntimeException | LinkageError e) {
+            LOGGER.log(Level.FINE, "Failed to prepare the Groovy sandbox", e);
+        }
+        for (Source source : sources) {
+            String name = source.locations().get(0);
+            try {
+                compile(source);
+                LOGGER.log(Level.FINE, "Compiled email template {0}", name);
+            } catch (Exception | LinkageError e) {
+                failed++;
+                LOGGER.log(Level.FINE, "Failed to compile email template " + name, e);
+            }
+        }
+        LOGGER.log(
+                Level.INFO,
+                "Compiled {0} email templates in {1} ms, {2} failed",
+                new Object[] {
+                    sources.size() - failed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failed
+                });
+        return failed;
+    }
+
+    /**
+     * Compiles a template once and caches it under each of its locations.
+     */
+    private static void compile(Source source) throws Exception {
+        List<String> locations = source.locations();
+        switch (source.kind()) {
+            case JELLY -> {
+                Script script = JellyScriptContent.compile(locations.get(0), source.text());
+                for (String location : locations.subList(1, locations.size())) {
+                    JellyScriptContent.cache(location, source.text(), script);
+                }
+            }
+            case GROOVY_TEMPLATE -> {
+                Template template = ScriptContent.compileTemplate(locations.get(0) + ":approved", source.text(), false);
+                for (String location : locations.subList(1, locations.size())) {
+                    ScriptContent.cacheTemplate(location + ":approved", source.text(), template);
+                }
+            }
+            case GROOVY_SCRIPT -> ScriptContent.compileScript(source.text(), false);
+        }
+    }
+
+    private static void addBundledTemplates(List<Source> sources) {
+        ClassLoader loader = TemplateWarmUp.class.getClassLoader();
+        for (String name : BUNDLED_TEMPLATES) {
+            try (InputStream in = loader.getResourceAsStream(TemplateLocations.RESOURCE_PREFIX + name)) {
+                if (in != null) {
+                    add(sources, name, IOUtils.toString(in, StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to read bundled email template " + name, e);
+            }
+        }
+    }
+
+    private static void addTemplatesFolder(List<Source> sources) {
+        Path folder = AbstractEvalContent.scriptsFolder().toPath();
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                String name = folder.relativize(file).toString().replace(File.separatorChar, '/');
+                if (kindOf(name) == null) {
+                    continue;
+                }
+                try {
+                    add(sources, name, Files.readString(file, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to read email template " + name, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to list the email templates in " + folder, e);
+        }
+    }
+
+    /**
+     * Adds a template file, which may be referred to with or without its extension.
+     */
+    private static void add(List<Source> sources, String name, String text) {
+        Kind kind = kindOf(name);
+        List<String> locations = kind == Kind.GROOVY_SCRIPT
+                ? List.of(name)
+                : List.of(name, FilenameUtils.removeExtension(name));
+        sources.add(new Source(kind, text, locations));
+    }
+
+    /**
+     * @return how a file is compiled, null if it is not a template, e.g. a README
+     */
+    private static Kind kindOf(String name) {
+        return switch (FilenameUtils.getExtension(name)) {
+            case "jelly" -> Kind.JELLY;
+            case "template" -> Kind.GROOVY_TEMPLATE;
+            case "groovy" -> Kind.GROOVY_SCRIPT;
+            default -> null;
+        };
+    }
+
+    private static void addManagedTemplates(List<Source> sources) {
+        if (Jenkins.get().getPlugin("config-file-provider") == null) {
+            return;
+        }
+        List<Config> groovy = ConfigFiles.getConfigsInContext(Jenkins.get(), GroovyTemplateConfigProvider.class);
+        for (Config config : groovy) {
+            sources.add(new Source(Kind.GROOVY_TEMPLATE, config.content, List.of("managed:" + config.name)));
+        }
+        List<Config> jelly = ConfigFiles.getConfigsInContext(Jenkins.get(), JellyTemplateConfigProvider.class);
+        for (Config config : jelly) {
+            sources.add(new Source(Kind.JELLY, config.content, List.of("managed:" + config.name)));
+        }
+    }
+}
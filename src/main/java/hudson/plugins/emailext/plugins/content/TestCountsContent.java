@@ -1,13 +1,16 @@
 package hudson.plugins.emailext.plugins.content;
 
+import com.google.common.collect.ListMultimap;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.model.AbstractBuild;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.plugins.emailext.plugins.MemoizedTokenMacro;
 import hudson.tasks.test.AbstractTestResultAction;
 import java.io.IOException;
+import java.util.Map;
 import org.jenkinsci.plugins.tokenmacro.DataBoundTokenMacro;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 
@@ -31,6 +34,22 @@ public class TestCountsContent extends DataBoundTokenMacro {
         return macroName.equals(MACRO_NAME);
     }
 
+    @Override
+    public String evaluate(
+            Run<?, ?> run,
+            FilePath workspace,
+            TaskListener listener,
+            String macroName,
+            Map<String, String> arguments,
+            ListMultimap<String, String> argumentMultimap)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        // the test results do not change while an email is built
+        return MemoizedTokenMacro.memoize(
+                macroName,
+                argumentMultimap,
+                () -> super.evaluate(run, workspace, listener, macroName, arguments, argumentMultimap));
+    }
+
     @Override
     public String evaluate(AbstractBuild<?, ?> build, TaskListener listener, String macroName)
             throws MacroEvaluationException, IOException, InterruptedException {
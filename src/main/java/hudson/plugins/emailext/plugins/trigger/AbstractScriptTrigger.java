@@ -2,12 +2,15 @@ package hudson.plugins.emailext.plugins.trigger;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
+import groovy.lang.Script;
 import hudson.Functions;
 import hudson.model.AbstractBuild;
 import hudson.model.Descriptor;
 import hudson.model.Item;
 import hudson.model.TaskListener;
+import hudson.plugins.emailext.CompiledScripts;
+import hudson.plugins.emailext.ExtendedEmailPublisherDescriptor;
+import hudson.plugins.emailext.ExtendedEmailPublisherDescriptor.ScriptClassLoader;
 import hudson.plugins.emailext.groovy.sandbox.PrintStreamInstanceWhitelist;
 import hudson.plugins.emailext.plugins.EmailTrigger;
 import hudson.plugins.emailext.plugins.RecipientProvider;
@@ -176,64 +179,77 @@ public abstract class AbstractScriptTrigger extends EmailTrigger {
         return result;
     }
 
-    @SuppressWarnings("lgtm[jenkins/unsafe-classes]")
     private Object evaluate(AbstractBuild<?, ?> build, TaskListener listener) throws IOException {
-        ClassLoader loader = Jenkins.get().getPluginManager().uberClassLoader;
         JenkinsLocationConfiguration configuration = JenkinsLocationConfiguration.get();
         assert configuration != null;
 
-        URLClassLoader urlcl = null;
+        String script = secureTriggerScript.getScript();
+        boolean sandbox = secureTriggerScript.isSandbox();
+        if (!sandbox) {
+            // checked on every run, the compiled class is reused only while the script stays approved
+            ScriptApproval.get().using(script, GroovyLanguage.get());
+        }
         List<ClasspathEntry> cp = secureTriggerScript.getClasspath();
-        if (!cp.isEmpty()) {
-            List<URL> urlList = new ArrayList<>(cp.size());
-
-            for (ClasspathEntry entry : cp) {
-                ScriptApproval.get().using(entry);
-                urlList.add(entry.getURL());
-            }
-
-            loader = urlcl = new URLClassLoader(urlList.toArray(new URL[0]), loader);
+        for (ClasspathEntry entry : cp) {
+            ScriptApproval.get().using(entry);
         }
-        try {
-            loader = GroovySandbox.createSecureClassLoader(loader);
-            CompilerConfiguration cc;
-            if (secureTriggerScript.isSandbox()) {
-                cc = GroovySandbox.createSecureCompilerConfiguration();
-            } else {
-                cc = new CompilerConfiguration();
-            }
-            cc.addCompilationCustomizers(
-                    new ImportCustomizer().addStarImports("jenkins", "jenkins.model", "hudson", "hudson.model"));
+        String classpathKey = "trigger:" + CompiledScripts.getClasspathFingerprint(cp);
 
-            Binding binding = new Binding();
-            binding.setVariable("build", build);
-            binding.setVariable("project", build.getParent());
-            binding.setVariable("rooturl", configuration.getUrl());
-            PrintStream logger = listener.getLogger();
-            binding.setVariable("out", logger);
+        Binding binding = new Binding();
+        binding.setVariable("build", build);
+        binding.setVariable("project", build.getParent());
+        binding.setVariable("rooturl", configuration.getUrl());
+        PrintStream logger = listener.getLogger();
+        binding.setVariable("out", logger);
 
-            GroovyShell shell = new GroovyShell(loader, binding, cc);
-
-            if (secureTriggerScript.isSandbox()) {
+        try (ScriptClassLoader loader = getClassLoader(cp, classpathKey)) {
+            Class<? extends Script> type = CompiledScripts.compile(
+                    script, loader.getLoader(), loader.getScope(), sandbox, getCompilerConfiguration(sandbox));
+            if (sandbox) {
                 try {
-                    return GroovySandbox.run(
-                            shell,
-                            secureTriggerScript.getScript(),
+                    return CompiledScripts.runInSandbox(
+                            type,
+                            binding,
                             new ProxyWhitelist(Whitelist.all(), new PrintStreamInstanceWhitelist(logger)));
                 } catch (RejectedAccessException x) {
                     throw ScriptApproval.get().accessRejected(x, ApprovalContext.create());
                 }
             } else {
-                return shell.evaluate(
-                        ScriptApproval.get().using(secureTriggerScript.getScript(), GroovyLanguage.get()));
-            }
-        } finally {
-            if (urlcl != null) {
-                urlcl.close();
+                return CompiledScripts.run(type, binding);
             }
         }
     }
 
+    /**
+     * Returns the class loader of trigger scripts with the given classpath, which is shared by all triggers with the
+     * same classpath so their compiled scripts can be reused. It has to be closed once the script ran.
+     */
+    @SuppressWarnings("lgtm[jenkins/unsafe-classes]")
+    private static ScriptClassLoader getClassLoader(List<ClasspathEntry> cp, String classpathKey) {
+        ClassLoader parent = Jenkins.get().getPluginManager().uberClassLoader;
+        ExtendedEmailPublisherDescriptor descriptor =
+                Jenkins.get().getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        return descriptor.getScriptClassLoader(System.identityHashCode(parent) + ":" + classpathKey, parent, () -> {
+            ClassLoader loader = parent;
+            if (!cp.isEmpty()) {
+                List<URL> urlList = new ArrayList<>(cp.size());
+                for (ClasspathEntry entry : cp) {
+                    urlList.add(entry.getURL());
+                }
+                loader = new URLClassLoader(urlList.toArray(new URL[0]), loader);
+            }
+            return GroovySandbox.createSecureClassLoader(loader);
+        });
+    }
+
+    private static CompilerConfiguration getCompilerConfiguration(boolean sandbox) {
+        CompilerConfiguration cc =
+                sandbox ? GroovySandbox.createSecureCompilerConfiguration() : new CompilerConfiguration();
+        cc.addCompilationCustomizers(
+                new ImportCustomizer().addStarImports("jenkins", "jenkins.model", "hudson", "hudson.model"));
+        return cc;
+    }
+
     @Deprecated
     protected transient String triggerScript;
 
@@ -32,6 +32,9 @@ f.section(title: _("Extended E-mail Notification")) {
   f.entry(field: "defaultContentType", help: "/plugin/email-ext/help/globalConfig/contentType.html", title: _("Default Content Type")) {
     f.select()
   }
+  f.entry(field: "minifyHtmlEnabled", title: _("Minify HTML emails"), help: "/plugin/email-ext/help/globalConfig/minifyHtmlEnabled.html") {
+    f.checkbox()
+  }
   f.entry(field: "listId", help: "/plugin/email-ext/help/globalConfig/listId.html", title: _("List ID")) {
     f.textbox()
   }
@@ -79,9 +82,53 @@ f.section(title: _("Extended E-mail Notification")) {
     }
   }
 
+  def compilationCaches = descriptor.compilationCaches
+  if (!compilationCaches.isEmpty()) {
+    f.entry(title: _("Compiled templates")) {
+      compilationCaches.each { name, cache ->
+        div("${name}: ${cache}")
+      }
+    }
+  }
+
   f.entry(field: "throttlingEnabled", title: _("Enable Throttling"), help: "/plugin/email-ext/help/globalConfig/throttlingEnabled.html") {
     f.checkbox()
   }
+  def rateLimiters = descriptor.rateLimiters
+  if (!rateLimiters.isEmpty()) {
+    f.entry(title: _("Rate limits")) {
+      rateLimiters.each { name, limiter ->
+        div("${name}: ${limiter}")
+      }
+    }
+  }
+  f.entry(field: "transportPoolingEnabled", title: _("Reuse SMTP connections"), help: "/plugin/email-ext/help/globalConfig/transportPoolingEnabled.html") {
+    f.checkbox()
+  }
+  if (descriptor.transportPoolingEnabled) {
+    f.entry(title: _("SMTP connection pool")) {
+      text(descriptor.transportPoolStatistics.toString())
+    }
+  }
+  def smtpServerHealth = descriptor.smtpServerHealth
+  if (!smtpServerHealth.isEmpty()) {
+    f.entry(title: _("SMTP servers")) {
+      smtpServerHealth.each { host, health ->
+        div("${host}: ${health}")
+      }
+    }
+  }
+  f.entry(field: "asyncDeliveryEnabled", title: _("Send emails in the background"), help: "/plugin/email-ext/help/globalConfig/asyncDeliveryEnabled.html") {
+    f.checkbox()
+  }
+  if (descriptor.asyncDeliveryEnabled) {
+    f.entry(title: _("Email delivery queue")) {
+      text(descriptor.deliveryQueue.toString())
+    }
+  }
+  f.entry(field: "outboxEnabled", title: _("Keep unsent emails across restarts"), help: "/plugin/email-ext/help/globalConfig/outboxEnabled.html") {
+    f.checkbox()
+  }
   f.entry(field: "debugMode", title: _("Enable Debug Mode"), help: "/plugin/email-ext/help/globalConfig/debugMode.html") {
     f.checkbox()
   }
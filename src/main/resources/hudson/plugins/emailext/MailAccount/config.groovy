@@ -35,4 +35,16 @@ f.advanced {
     f.entry(field: "advProperties", title: _("Advanced Email Properties")) {
         f.textarea()
     }
+    f.entry(field: "recipientChunkSize", title: _("Maximum recipients per message")) {
+        f.number(min: 0, default: "0")
+    }
+    f.entry(field: "weight", title: _("Relay weight")) {
+        f.number(min: 1, default: "1")
+    }
+    f.entry(field: "rateLimitBurst", title: _("Rate limit burst")) {
+        f.number(min: 0, default: "0")
+    }
+    f.entry(field: "rateLimitPerSecond", title: _("Rate limit (emails per second)")) {
+        f.number(min: 0, step: "any", default: "0")
+    }
 }
@@ -0,0 +1,17 @@
+package hudson.plugins.emailext.MailDeliveryAction
+// Namespaces
+def t = namespace("/lib/hudson")
+
+t.summary(icon: "/plugin/email-ext/images/mail-delivery.svg") {
+  b(my.displayName)
+  ul {
+    my.deliveries.each { d ->
+      li {
+        text(_("status", d.trigger, d.recipients, d.status, d.attempts))
+        if (d.error != null) {
+          text(": ${d.error}")
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class CompilationCacheTest {
+
+    private final AtomicInteger compilations = new AtomicInteger();
+
+    private String compile(String source) {
+        compilations.incrementAndGet();
+        return source.toUpperCase();
+    }
+
+    @Test
+    void compiledFormIsReused() {
+        CompilationCache<String> cache = new CompilationCache<>("test", 10, 1000);
+
+        String first = cache.get("a.template", "hello", () -> compile("hello"));
+        assertSame(first, cache.get("a.template", "hello", () -> compile("hello")));
+        assertEquals(1, compilations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void changedSourceReplacesEntry() {
+        CompilationCache<String> cache = new CompilationCache<>("test", 10, 1000);
+        cache.get("a.template", "hello", () -> compile("hello"));
+
+        assertEquals("BYE", cache.get("a.template", "bye", () -> compile("bye")));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getInvalidations());
+
+        cache.invalidate("a.template");
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void sharedSourcesAreCachedSideBySide() {
+        CompilationCache<String> cache = new CompilationCache<>("test", 10, 1000);
+        cache.getShared("sandboxed", "hello", () -> compile("hello"));
+        cache.getShared("sandboxed", "bye", () -> compile("bye"));
+        cache.getShared("approved", "hello", () -> compile("hello"));
+
+        assertEquals("HELLO", cache.getShared("sandboxed", "hello", () -> compile("hello")));
+        assertEquals(3, cache.getSize());
+        assertEquals(3, compilations.get());
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() {
+        CompilationCache<String> cache = new CompilationCache<>("test", 2, 1000);
+        cache.get("a", "a", () -> compile("a"));
+        cache.get("b", "b", () -> compile("b"));
+        cache.get("a", "a", () -> compile("a"));
+        cache.get("c", "c", () -> compile("c"));
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        cache.get("a", "a", () -> compile("a"));
+        assertEquals(3, compilations.get());
+        cache.get("b", "b", () -> compile("b"));
+        assertEquals(4, compilations.get());
+    }
+
+    @Test
+    void entriesAreBoundedByWeight() {
+        CompilationCache<String> cache = new CompilationCache<>("test", 10, 8);
+        cache.get("a", "aaaaa", () -> compile("aaaaa"));
+        cache.get("b", "bbbbb", () -> compile("bbbbb"));
+
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void failuresAreNotCached() {
+        CompilationCache<String> cache = new CompilationCache<>("test", 10, 1000);
+
+        assertThrows(IOException.class, () -> cache.get("a", "broken", () -> {
+            throw new IOException("syntax error");
+        }));
+        assertEquals(0, cache.getSize());
+        assertEquals("BROKEN", cache.get("a", "broken", () -> compile("broken")));
+    }
+
+    @Test
+    void concurrentLookupsCompileOnce() throws Exception {
+        CompilationCache<String> cache = new CompilationCache<>("test", 10, 1000);
+        CountDownLatch compiling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("a", "slow", () -> {
+                compiling.countDown();
+                release.await();
+                return compile("slow");
+            }));
+            compiling.await();
+            Future<String> second = executor.submit(() -> cache.get("a", "slow", () -> compile("slow")));
+            release.countDown();
+
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, compilations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
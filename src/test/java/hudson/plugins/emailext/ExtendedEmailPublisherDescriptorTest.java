@@ -14,6 +14,7 @@ import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import groovy.lang.Script;
 import hudson.FilePath;
 import hudson.Functions;
 import hudson.Launcher;
@@ -46,12 +47,20 @@ import hudson.security.ACLContext;
 import hudson.util.FormValidation.Kind;
 import hudson.util.ListBoxModel;
 import jakarta.mail.Authenticator;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import jenkins.model.Jenkins;
+import org.codehaus.groovy.control.CompilerConfiguration;
 import org.htmlunit.ElementNotFoundException;
 import org.htmlunit.html.DomElement;
 import org.htmlunit.html.DomNode;
@@ -506,6 +515,151 @@ class ExtendedEmailPublisherDescriptorTest {
                 .apply(mailAccountCaptor.capture(), runCaptor.capture());
     }
 
+    @Test
+    void sessionIsReusedForSameAccountConfiguration() {
+        ExtendedEmailPublisherDescriptor descriptor =
+                j.jenkins.getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        MailAccount ma = new MailAccount();
+        ma.setAddress("test@example.com");
+        ma.setSmtpHost("smtp.example.com");
+        ma.setSmtpPort("25");
+        ExtendedEmailPublisherContext context = new ExtendedEmailPublisherContext(
+                Mockito.mock(ExtendedEmailPublisher.class),
+                Mockito.mock(Run.class),
+                Mockito.mock(FilePath.class),
+                Mockito.mock(Launcher.class),
+                Mockito.mock(TaskListener.class));
+
+        Session session = descriptor.createSession(ma, context);
+        assertSame(session, descriptor.createSession(ma, context));
+
+        ma.setAdvProperties("mail.smtp.ssl.trust=smtp.example.com");
+        Session changed = descriptor.createSession(ma, context);
+        assertNotSame(session, changed);
+        assertEquals("smtp.example.com", changed.getProperty("mail.smtp.ssl.trust"));
+
+        descriptor.clearSessions();
+        assertNotSame(changed, descriptor.createSession(ma, context));
+
+        descriptor.setDebugMode(true);
+        try {
+            assertNotSame(descriptor.createSession(ma, context), descriptor.createSession(ma, context));
+        } finally {
+            descriptor.setDebugMode(false);
+        }
+
+        // sessions are shared by the builds which resolve the same credentials
+        ma.setCredentialsId("email-ext-admin");
+        String[] password = {"honeycomb"};
+        descriptor.setAuthenticatorProvider((acc, run) -> new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication("admin", password[0]);
+            }
+        });
+        Session authenticated = descriptor.createSession(ma, context);
+        assertSame(authenticated, descriptor.createSession(ma, context));
+        assertEquals(
+                "honeycomb",
+                authenticated.requestPasswordAuthentication(null, 0, "smtp", null, null).getPassword());
+
+        password[0] = "beehive";
+        Session other = descriptor.createSession(ma, context);
+        assertNotSame(authenticated, other);
+        assertEquals("beehive", other.requestPasswordAuthentication(null, 0, "smtp", null, null).getPassword());
+    }
+
+    @Test
+    void scriptClassLoaderIsReusedForSameClasspath() {
+        ExtendedEmailPublisherDescriptor descriptor =
+                j.jenkins.getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        ClassLoader parent = getClass().getClassLoader();
+
+        ClassLoader loader = getScriptClassLoader(descriptor, "a.jar", parent, () -> new ClassLoader(parent) {});
+        assertSame(loader, getScriptClassLoader(descriptor, "a.jar", parent, () -> new ClassLoader(parent) {}));
+        assertNotSame(
+                loader, getScriptClassLoader(descriptor, "b.jar", parent, () -> new ClassLoader(parent) {}));
+
+        descriptor.clearScriptClassLoaders();
+        assertNotSame(
+                loader, getScriptClassLoader(descriptor, "a.jar", parent, () -> new ClassLoader(parent) {}));
+    }
+
+    private static ClassLoader getScriptClassLoader(
+            ExtendedEmailPublisherDescriptor descriptor,
+            String key,
+            ClassLoader parent,
+            Supplier<ClassLoader> factory) {
+        try (ExtendedEmailPublisherDescriptor.ScriptClassLoader loader =
+                descriptor.getScriptClassLoader(key, parent, factory)) {
+            return loader.getLoader();
+        }
+    }
+
+    @Test
+    void scriptClassLoadersAreClosedWhenDropped() throws Exception {
+        ExtendedEmailPublisherDescriptor descriptor =
+                j.jenkins.getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        List<ClassLoader> closed = new ArrayList<>();
+        ClassLoader parent = new ClosingClassLoader(getClass().getClassLoader(), closed);
+
+        ClassLoader expanded = new ClosingClassLoader(parent, closed);
+        getScriptClassLoader(descriptor, "a.jar", parent, () -> new ClassLoader(expanded) {});
+        // class loaders created for the classpath are closed, the one they delegate to is not
+        descriptor.clearScriptClassLoaders();
+        assertEquals(List.of(expanded), closed);
+
+        closed.clear();
+        ClassLoader eldest =
+                getScriptClassLoader(descriptor, "0.jar", parent, () -> new ClosingClassLoader(parent, closed));
+        for (int i = 1; i <= ExtendedEmailPublisherDescriptor.CLASS_LOADER_CACHE_SIZE; i++) {
+            getScriptClassLoader(descriptor, i + ".jar", parent, () -> new ClosingClassLoader(parent, closed));
+        }
+        assertEquals(List.of(eldest), closed);
+    }
+
+    @Test
+    void scriptClassLoaderInUseIsClosedOnceReleased() throws Exception {
+        ExtendedEmailPublisherDescriptor descriptor =
+                j.jenkins.getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        List<ClassLoader> closed = new ArrayList<>();
+        ClassLoader parent = getClass().getClassLoader();
+        CompilerConfiguration cc = new CompilerConfiguration();
+
+        Class<? extends Script> type;
+        try (ExtendedEmailPublisherDescriptor.ScriptClassLoader loader =
+                descriptor.getScriptClassLoader("a.jar", parent, () -> new ClosingClassLoader(parent, closed))) {
+            type = CompiledScripts.compile("1 + 1", loader.getLoader(), loader.getScope(), false, cc);
+            descriptor.clearScriptClassLoaders();
+            // still running a script
+            assertEquals(List.of(), closed);
+            assertSame(type, CompiledScripts.compile("1 + 1", loader.getLoader(), loader.getScope(), false, cc));
+        }
+        assertEquals(1, closed.size());
+
+        // the script compiled with the closed loader is not reused
+        try (ExtendedEmailPublisherDescriptor.ScriptClassLoader loader =
+                descriptor.getScriptClassLoader("a.jar", parent, () -> new ClosingClassLoader(parent, closed))) {
+            assertNotSame(closed.get(0), loader.getLoader());
+            assertNotSame(type, CompiledScripts.compile("1 + 1", loader.getLoader(), loader.getScope(), false, cc));
+        }
+    }
+
+    private static final class ClosingClassLoader extends URLClassLoader {
+        private final List<ClassLoader> closed;
+
+        ClosingClassLoader(ClassLoader parent, List<ClassLoader> closed) {
+            super(new URL[0], parent);
+            this.closed = closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed.add(this);
+            super.close();
+        }
+    }
+
     @Test
     void testFixEmptyAndTrimNormal() throws Exception {
         ExtendedEmailPublisherDescriptor descriptor =
@@ -8,6 +8,7 @@ import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.google.common.collect.ArrayListMultimap;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
@@ -41,6 +42,7 @@ import hudson.security.AuthorizationStrategy;
 import hudson.security.SecurityRealm;
 import hudson.tasks.Builder;
 import hudson.tasks.Mailer;
+import hudson.util.StreamTaskListener;
 import jakarta.mail.Address;
 import jakarta.mail.BodyPart;
 import jakarta.mail.Message;
@@ -49,7 +51,9 @@ import jakarta.mail.Part;
 import jakarta.mail.Session;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -139,6 +143,7 @@ class ExtendedEmailPublisherTest {
         approval.clearApprovedClasspathEntries();
         approval.clearApprovedScripts();
         EmailThrottler.getInstance().resetEmailCount();
+        MailDeliveryQueue.get().cancelScheduled();
     }
 
     private void setUpSecurity() {
@@ -1130,6 +1135,37 @@ class ExtendedEmailPublisherTest {
         verifyPostsendScriptModifiesMessageId();
     }
 
+    @Test
+    void postsendScriptGetsTransportWhenServerIsUnavailable() throws Exception {
+        publisher.setPostsendScript("logger.println('Transport connected: ' + transport.connected)");
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ExtendedEmailPublisherContext context = new ExtendedEmailPublisherContext(
+                publisher, build, build.getWorkspace(), null, new StreamTaskListener(log, StandardCharsets.UTF_8));
+        context.setTriggered(ArrayListMultimap.create());
+        MailAccount account = publisher.getDescriptor().getMailAccount();
+        Session session = publisher.getDescriptor().createSession(account, context);
+        MimeMessage msg = new MimeMessage(session);
+        msg.setRecipients(Message.RecipientType.TO, "ashlux@gmail.com");
+        MailDeliveryAction.Delivery delivery = new MailDeliveryAction.Delivery("Always", 1);
+        for (int i = 1; i < SmtpRetryPolicy.MAX_ATTEMPTS; i++) {
+            delivery.attempted();
+        }
+
+        String host = SmtpCircuitBreaker.key(account);
+        for (int i = 0; i < SmtpCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            SmtpCircuitBreaker.get().recordFailure(host);
+        }
+        try {
+            publisher.deliver(context, account, session, msg, delivery);
+        } finally {
+            SmtpCircuitBreaker.get().recordSuccess(host);
+        }
+
+        assertEquals(0, Mailbox.get("ashlux@gmail.com").size());
+        assertThat(log.toString(StandardCharsets.UTF_8), containsString("Transport connected: false"));
+    }
+
     @Test
     void testSendToRequesterLegacy() throws Exception {
         SuccessTrigger successTrigger = new SuccessTrigger(
@@ -1930,6 +1966,14 @@ class ExtendedEmailPublisherTest {
         assertEquals(
                 EmailThrottler.THROTTLING_LIMIT,
                 Mailbox.get("mickey@disney.com").size());
+        // emails over the limit are deferred rather than dropped
+        MailDeliveryAction action = build.getAction(MailDeliveryAction.class);
+        assertNotNull(action);
+        assertEquals(120 - EmailThrottler.THROTTLING_LIMIT, action.getDeliveries().size());
+        for (MailDeliveryAction.Delivery delivery : action.getDeliveries()) {
+            assertEquals(MailDeliveryAction.Status.QUEUED, delivery.getStatus());
+        }
+        j.assertLogContains("Rate limit reached, email deferred", build);
     }
 
     @Test
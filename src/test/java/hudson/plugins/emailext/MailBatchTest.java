@@ -0,0 +1,56 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import java.util.Properties;
+import org.junit.jupiter.api.Test;
+
+class MailBatchTest {
+
+    private final Session session = Session.getInstance(new Properties(System.getProperties()));
+
+    private static MailAccount account(String host) {
+        MailAccount account = new MailAccount();
+        account.setSmtpHost(host);
+        account.setSmtpPort("25");
+        return account;
+    }
+
+    @Test
+    void connectionIsSharedPerAccount() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(2, 60_000L, 100L);
+        InternetAddress to = new InternetAddress("mickey@disney.com");
+        MailAccount account = account("smtp.example.com");
+
+        try (MailBatch batch = new MailBatch(pool)) {
+            Transport first = batch.borrow(account, session, to);
+            batch.release(first, true);
+            assertSame(first, batch.borrow(account("smtp.example.com"), session, to));
+            assertNotSame(first, batch.borrow(account("smtp.example.org"), session, to));
+            assertEquals(2, pool.getStatistics().getLeased());
+        }
+        assertEquals(0, pool.getStatistics().getLeased());
+        assertEquals(2, pool.getStatistics().getIdle());
+        assertEquals(2, pool.getStatistics().getCreated());
+    }
+
+    @Test
+    void failedConnectionIsReplaced() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(2, 60_000L, 100L);
+        InternetAddress to = new InternetAddress("mickey@disney.com");
+        MailAccount account = account("smtp.example.com");
+
+        try (MailBatch batch = new MailBatch(pool)) {
+            Transport first = batch.borrow(account, session, to);
+            batch.release(first, false);
+            assertNotSame(first, batch.borrow(account, session, to));
+        }
+        assertEquals(1, pool.getStatistics().getIdle());
+        assertEquals(2, pool.getStatistics().getCreated());
+    }
+}
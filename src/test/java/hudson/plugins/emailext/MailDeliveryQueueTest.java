@@ -0,0 +1,98 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class MailDeliveryQueueTest {
+
+    @Test
+    void deliveriesRunOnWorkerThread() throws Exception {
+        MailDeliveryQueue queue = new MailDeliveryQueue(1, 10);
+        CountDownLatch done = new CountDownLatch(1);
+        String[] thread = new String[1];
+
+        assertTrue(queue.submit(() -> {
+            thread[0] = Thread.currentThread().getName();
+            done.countDown();
+        }));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(thread[0].startsWith("email-ext delivery"));
+        queue.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void fullQueueRejectsDelivery() throws Exception {
+        MailDeliveryQueue queue = new MailDeliveryQueue(1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        assertTrue(queue.submit(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertTrue(queue.submit(() -> {}));
+        assertFalse(queue.submit(() -> {}));
+        assertEquals(1, queue.getRejected());
+
+        release.countDown();
+        queue.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void scheduledDeliveryOverflowsInsteadOfRunningOnScheduler() throws Exception {
+        MailDeliveryQueue queue = new MailDeliveryQueue(1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch overflowed = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+
+        assertTrue(queue.submit(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertTrue(queue.submit(() -> {}));
+        // the queue is full once the delay has passed
+        queue.schedule(ran::incrementAndGet, 0, overflowed::countDown);
+        assertTrue(overflowed.await(10, TimeUnit.SECONDS));
+
+        // too many deliveries are waiting already
+        queue.schedule(ran::incrementAndGet, 60_000, () -> {});
+        queue.schedule(ran::incrementAndGet, 60_000, ran::decrementAndGet);
+        assertEquals(1, queue.getScheduled());
+        assertEquals(2, queue.getOverflowed());
+
+        release.countDown();
+        queue.shutdown(10, TimeUnit.SECONDS);
+        assertEquals(-1, ran.get());
+    }
+
+    @Test
+    void deliveryRecordsOutcome() {
+        MailDeliveryAction.Delivery delivery = new MailDeliveryAction.Delivery("Failure", 3);
+        assertEquals(MailDeliveryAction.Status.QUEUED, delivery.getStatus());
+
+        delivery.attempted();
+        delivery.attempted();
+        delivery.sent("<id@localhost>");
+
+        assertEquals(MailDeliveryAction.Status.SENT, delivery.getStatus());
+        assertEquals(1, delivery.getRetries());
+        assertEquals("<id@localhost>", delivery.getMessageId());
+    }
+}
@@ -0,0 +1,58 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.jvnet.mock_javamail.Mailbox;
+
+@WithJenkins
+class MailOutboxReplayTest {
+
+    @TempDir
+    File dir;
+
+    @AfterEach
+    void tearDown() {
+        MailDeliveryQueue.get().cancelScheduled();
+        Mailbox.clearAll();
+    }
+
+    @Test
+    void messageIsKeptWhileServerIsUnavailable(JenkinsRule j) throws Exception {
+        ExtendedEmailPublisherDescriptor descriptor =
+                j.jenkins.getDescriptorByType(ExtendedEmailPublisherDescriptor.class);
+        MailOutbox outbox = new MailOutbox(dir, 1024 * 1024);
+        outbox.recover();
+        MailOutbox.Entry entry = new MailOutbox.Entry(
+                "a",
+                "folder/job",
+                42,
+                "",
+                "To: dev@example.com\r\nSubject: a\r\n\r\nbody".getBytes(StandardCharsets.UTF_8));
+        outbox.append(entry);
+
+        String host = SmtpCircuitBreaker.key(descriptor.getMailAccount());
+        for (int i = 0; i < SmtpCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            SmtpCircuitBreaker.get().recordFailure(host);
+        }
+        try {
+            outbox.replay(entry, descriptor);
+        } finally {
+            SmtpCircuitBreaker.get().recordSuccess(host);
+        }
+        // kept, and tried again later
+        assertEquals(1, outbox.getPending());
+        assertEquals(1, entry.attempts);
+        assertEquals(1, MailDeliveryQueue.get().getScheduled());
+
+        outbox.replay(entry, descriptor);
+        assertEquals(0, outbox.getPending());
+        assertEquals(1, Mailbox.get("dev@example.com").size());
+    }
+}
@@ -0,0 +1,142 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import jakarta.mail.Address;
+import jakarta.mail.internet.InternetAddress;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MailOutboxTest {
+
+    @TempDir
+    File dir;
+
+    private static MailOutbox.Entry entry(String key) {
+        return new MailOutbox.Entry(
+                key, "folder/job", 42, "", ("Subject: " + key + "\r\n\r\nbody").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void uncommittedMessagesAreRecovered() throws Exception {
+        MailOutbox outbox = new MailOutbox(dir, 1024 * 1024);
+        outbox.recover();
+        outbox.append(entry("a"));
+        outbox.append(entry("b"));
+        outbox.commit("a");
+
+        List<MailOutbox.Entry> pending = new MailOutbox(dir, 1024 * 1024).recover();
+
+        assertEquals(1, pending.size());
+        MailOutbox.Entry b = pending.get(0);
+        assertEquals("b", b.key);
+        assertEquals("folder/job", b.job);
+        assertEquals(42, b.build);
+        assertArrayEquals(entry("b").mime, b.mime);
+    }
+
+    @Test
+    void sameKeyIsReplayedOnce() throws Exception {
+        MailOutbox outbox = new MailOutbox(dir, 1024 * 1024);
+        outbox.recover();
+        outbox.append(entry("a"));
+        outbox.append(entry("a"));
+
+        assertEquals(1, new MailOutbox(dir, 1024 * 1024).recover().size());
+    }
+
+    @Test
+    void messagesWithSameTriggerAndRecipientsAreReplayedSeparately() throws Exception {
+        AbstractProject<?, ?> job = mock(AbstractProject.class);
+        when(job.getFullName()).thenReturn("folder/job");
+        AbstractBuild<?, ?> run = mock(AbstractBuild.class);
+        doReturn(job).when(run).getParent();
+        when(run.getNumber()).thenReturn(42);
+        Address[] recipients = {new InternetAddress("dev@example.com")};
+        String first = MailOutbox.key(run, "Always", recipients, "<1@example.com>");
+        String second = MailOutbox.key(run, "Always", recipients, "<2@example.com>");
+        assertNotEquals(first, second);
+
+        MailOutbox outbox = new MailOutbox(dir, 1024 * 1024);
+        outbox.recover();
+        outbox.append(entry(first));
+        outbox.append(entry(second));
+
+        MailOutbox recovered = new MailOutbox(dir, 1024 * 1024);
+        List<MailOutbox.Entry> pending = recovered.recover();
+        assertEquals(2, pending.size());
+        assertArrayEquals(entry(first).mime, pending.get(0).mime);
+        assertArrayEquals(entry(second).mime, pending.get(1).mime);
+
+        // committing one of them after it was replayed keeps the other
+        recovered.commit(first);
+        pending = new MailOutbox(dir, 1024 * 1024).recover();
+        assertEquals(1, pending.size());
+        assertEquals(second, pending.get(0).key);
+    }
+
+    @Test
+    void committedSegmentsAreDeleted() throws Exception {
+        MailOutbox outbox = new MailOutbox(dir, 1);
+        outbox.recover();
+        for (int i = 0; i < 5; i++) {
+            outbox.append(entry("m" + i));
+        }
+        assertEquals(5, segments());
+
+        for (int i = 0; i < 4; i++) {
+            outbox.commit("m" + i);
+        }
+        // the oldest segment still holds a pending message, so it and the newer segments are kept
+        assertEquals("segment-000000000004.log", oldestSegment());
+
+        List<MailOutbox.Entry> pending = new MailOutbox(dir, 1).recover();
+        assertEquals(1, pending.size());
+        assertEquals("m4", pending.get(0).key);
+    }
+
+    @Test
+    void truncatedRecordIsIgnored() throws Exception {
+        MailOutbox outbox = new MailOutbox(dir, 1024 * 1024);
+        outbox.recover();
+        outbox.append(entry("a"));
+        outbox.append(entry("b"));
+        truncateLastSegment(5);
+
+        List<MailOutbox.Entry> pending = new MailOutbox(dir, 1024 * 1024).recover();
+        assertEquals(1, pending.size());
+        assertEquals("a", pending.get(0).key);
+    }
+
+    private int segments() {
+        String[] names = dir.list();
+        return names == null ? 0 : names.length;
+    }
+
+    private String oldestSegment() {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return names[0];
+    }
+
+    private void truncateLastSegment(int bytes) throws IOException {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, names[names.length - 1]), "rw")) {
+            file.setLength(file.length() - bytes);
+        }
+    }
+}
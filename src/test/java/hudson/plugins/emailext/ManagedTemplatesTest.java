@@ -0,0 +1,80 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import java.nio.charset.StandardCharsets;
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.plugins.configfiles.GlobalConfigFiles;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileAction;
+import org.jenkinsci.plugins.configfiles.folder.FolderConfigFileProperty;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class ManagedTemplatesTest {
+
+    private static final Class<? extends ConfigProvider> GROOVY =
+            GroovyTemplateConfig.GroovyTemplateConfigProvider.class;
+    private static final Class<? extends ConfigProvider> JELLY = JellyTemplateConfig.JellyTemplateConfigProvider.class;
+
+    @Test
+    void globalTemplatesAreFoundByName(JenkinsRule j) throws Exception {
+        assertNull(ManagedTemplates.find(j.jenkins, GROOVY, "test.groovy"));
+
+        GlobalConfigFiles.get().save(new GroovyTemplateConfig("test-id", "test.groovy", "", "Hello"));
+
+        ManagedTemplates.Template template = ManagedTemplates.find(j.jenkins, GROOVY, "TEST.groovy");
+        assertNotNull(template);
+        assertTrue(template.global());
+        assertArrayEquals("Hello".getBytes(StandardCharsets.UTF_8), template.open().readAllBytes());
+        assertNull(ManagedTemplates.find(j.jenkins, JELLY, "test.groovy"));
+
+        GlobalConfigFiles.get().remove("test-id");
+        assertNull(ManagedTemplates.find(j.jenkins, GROOVY, "test.groovy"));
+    }
+
+    @Test
+    void folderTemplatesTakePrecedence(JenkinsRule j) throws Exception {
+        GlobalConfigFiles.get().save(new JellyTemplateConfig("global-id", "test.jelly", "", "global"));
+        Folder folder = j.createProject(Folder.class, "sub");
+        folder.getAction(FolderConfigFileAction.class).getGroupedConfigs(); // creates the config store
+        folder.getProperties()
+                .get(FolderConfigFileProperty.class)
+                .save(new JellyTemplateConfig("folder-id", "test.jelly", "", "folder"));
+
+        ManagedTemplates.Template template = ManagedTemplates.find(folder, JELLY, "test.jelly");
+        assertNotNull(template);
+        assertFalse(template.global());
+        assertEquals("folder", new String(template.open().readAllBytes(), StandardCharsets.UTF_8));
+
+        template = ManagedTemplates.find(j.jenkins, JELLY, "test.jelly");
+        assertNotNull(template);
+        assertTrue(template.global());
+    }
+
+    @Test
+    void folderTemplatesAreFoundInNestedFoldersOnceSaved(JenkinsRule j) throws Exception {
+        Folder folder = j.createProject(Folder.class, "sub");
+        Folder nested = folder.createProject(Folder.class, "nested");
+        Folder sibling = j.createProject(Folder.class, "sibling");
+        assertNull(ManagedTemplates.find(nested, JELLY, "test.jelly"));
+        assertNull(ManagedTemplates.find(sibling, JELLY, "test.jelly"));
+
+        folder.getAction(FolderConfigFileAction.class).getGroupedConfigs(); // creates the config store
+        folder.getProperties()
+                .get(FolderConfigFileProperty.class)
+                .save(new JellyTemplateConfig("folder-id", "test.jelly", "", "folder"));
+
+        ManagedTemplates.Template template = ManagedTemplates.find(nested, JELLY, "test.jelly");
+        assertNotNull(template);
+        assertEquals("folder", new String(template.open().readAllBytes(), StandardCharsets.UTF_8));
+        assertNull(ManagedTemplates.find(sibling, JELLY, "test.jelly"));
+    }
+}
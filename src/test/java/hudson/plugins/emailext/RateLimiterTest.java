@@ -0,0 +1,83 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void burstIsAvailableImmediately() {
+        RateLimiter limiter = new RateLimiter(3, 1.0, clock::get);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(0, limiter.getAvailable());
+    }
+
+    @Test
+    void tokensAreRefilledAtSustainedRate() {
+        RateLimiter limiter = new RateLimiter(2, 2.0, clock::get);
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+
+        advance(499);
+        assertFalse(limiter.tryAcquire());
+        advance(1);
+        assertTrue(limiter.tryAcquire());
+
+        advance(10_000);
+        assertEquals(2, limiter.getAvailable());
+    }
+
+    @Test
+    void reservationsAreDeferredInOrder() {
+        RateLimiter limiter = new RateLimiter(1, 1.0, clock::get);
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(1_001, limiter.reserve());
+        assertEquals(2_001, limiter.reserve());
+        assertEquals(-2, limiter.getAvailable());
+    }
+
+    @Test
+    void resetFillsBucket() {
+        RateLimiter limiter = new RateLimiter(2, 0.1, clock::get);
+        limiter.reserve();
+        limiter.reserve();
+        limiter.reserve();
+
+        limiter.reset();
+        assertEquals(2, limiter.getAvailable());
+    }
+
+    @Test
+    void accountLimiterIsSharedAndFollowsConfiguration() {
+        MailAccount account = new MailAccount();
+        account.setSmtpHost("smtp.example.com");
+        assertNull(RateLimiter.forAccount(account));
+
+        account.setRateLimitBurst(10);
+        account.setRateLimitPerSecond(1.0);
+        RateLimiter limiter = RateLimiter.forAccount(account);
+        assertSame(limiter, RateLimiter.forAccount(account));
+
+        account.setRateLimitPerSecond(2.0);
+        assertNotSame(limiter, RateLimiter.forAccount(account));
+    }
+}
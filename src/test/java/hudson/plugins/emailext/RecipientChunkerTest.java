@@ -0,0 +1,94 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.InternetAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+
+class RecipientChunkerTest {
+
+    private static Address[] recipients(int count) throws Exception {
+        Address[] recipients = new Address[count];
+        for (int i = 0; i < count; i++) {
+            recipients[i] = new InternetAddress("user" + i + "@example.com");
+        }
+        return recipients;
+    }
+
+    @Test
+    void splitsIntoChunksOfAtMostGivenSize() throws Exception {
+        List<Address[]> chunks = RecipientChunker.split(recipients(7), 3);
+
+        assertEquals(3, chunks.size());
+        assertEquals(3, chunks.get(0).length);
+        assertEquals(3, chunks.get(1).length);
+        assertEquals(1, chunks.get(2).length);
+    }
+
+    @Test
+    void sendsEveryChunk() throws Exception {
+        Address[] recipients = recipients(10);
+        Set<Address> sent = ConcurrentHashMap.newKeySet();
+
+        RecipientChunker.send(recipients, 3, (chunk, index) -> sent.addAll(List.of(chunk)));
+
+        assertEquals(Set.of(recipients), sent);
+    }
+
+    @Test
+    void failedChunkDoesNotStopOthers() throws Exception {
+        Address[] recipients = recipients(6);
+        MessagingException rejected = new MessagingException("452 Too many recipients");
+
+        SendFailedException e = assertThrows(
+                SendFailedException.class,
+                () -> RecipientChunker.send(recipients, 2, (chunk, index) -> {
+                    if (index == 1) {
+                        throw rejected;
+                    }
+                }));
+
+        assertEquals("Sending failed for 1 of 3 recipient chunks", e.getMessage());
+        assertSame(rejected, e.getNextException());
+        assertArrayEquals(
+                new Address[] {recipients[0], recipients[1], recipients[4], recipients[5]},
+                e.getValidSentAddresses());
+        assertArrayEquals(new Address[] {recipients[2], recipients[3]}, e.getValidUnsentAddresses());
+        assertEquals(452, ExtendedEmailPublisher.getSmtpErrorCode(e));
+    }
+
+    @Test
+    void partlySentChunkKeepsTheAddressesOfItsError() throws Exception {
+        Address[] recipients = recipients(6);
+        SendFailedException partial = new SendFailedException(
+                "550 No such user",
+                null,
+                new Address[] {recipients[3]},
+                new Address[] {recipients[4]},
+                new Address[] {recipients[5]});
+
+        SendFailedException e = assertThrows(
+                SendFailedException.class,
+                () -> RecipientChunker.send(recipients, 3, (chunk, index) -> {
+                    if (index == 1) {
+                        throw partial;
+                    }
+                }));
+
+        assertSame(partial, e.getNextException());
+        assertArrayEquals(
+                new Address[] {recipients[0], recipients[1], recipients[2], recipients[3]},
+                e.getValidSentAddresses());
+        assertArrayEquals(new Address[] {recipients[4]}, e.getValidUnsentAddresses());
+        assertArrayEquals(new Address[] {recipients[5]}, e.getInvalidAddresses());
+    }
+}
@@ -0,0 +1,81 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class RelayGroupTest {
+
+    private static MailAccount relay(String host, int weight) {
+        MailAccount account = new MailAccount();
+        account.setAddress("jenkins@example.com");
+        account.setSmtpHost(host);
+        account.setSmtpPort("25");
+        account.setWeight(weight);
+        return account;
+    }
+
+    @Test
+    void roundRobinFollowsWeights() {
+        MailAccount a = relay("relay-weighted-a.example.com", 2);
+        MailAccount b = relay("relay-weighted-b.example.com", 1);
+        RelayGroup group = new RelayGroup(false);
+
+        Map<MailAccount, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            counts.merge(group.select(List.of(a, b)), 1, Integer::sum);
+        }
+        assertEquals(20, counts.get(a));
+        assertEquals(10, counts.get(b));
+    }
+
+    @Test
+    void openCircuitIsSkipped() {
+        MailAccount a = relay("relay-down-a.example.com", 1);
+        MailAccount b = relay("relay-down-b.example.com", 1);
+        for (int i = 0; i < Math.max(1, SmtpCircuitBreaker.FAILURE_THRESHOLD); i++) {
+            SmtpCircuitBreaker.get().recordFailure(SmtpCircuitBreaker.key(a));
+        }
+        RelayGroup group = new RelayGroup(false);
+
+        for (int i = 0; i < 5; i++) {
+            assertSame(b, group.select(List.of(a, b)));
+        }
+        SmtpCircuitBreaker.get().recordSuccess(SmtpCircuitBreaker.key(a));
+    }
+
+    @Test
+    void leastOutstandingPicksIdleRelay() {
+        MailAccount a = relay("relay-busy-a.example.com", 1);
+        MailAccount b = relay("relay-busy-b.example.com", 1);
+        RelayGroup group = new RelayGroup(true);
+
+        RelayGroup.started(a);
+        try {
+            assertEquals(1, RelayGroup.getOutstanding(a));
+            assertSame(b, group.select(List.of(a, b)));
+        } finally {
+            RelayGroup.finished(a);
+        }
+        assertEquals(0, RelayGroup.getOutstanding(a));
+    }
+
+    @Test
+    void alternativesHaveSameAddressAndOtherServer() {
+        MailAccount a = relay("relay-alt-a.example.com", 1);
+        MailAccount b = relay("relay-alt-b.example.com", 1);
+        MailAccount same = relay("relay-alt-a.example.com", 3);
+        MailAccount other = relay("relay-alt-c.example.com", 1);
+        other.setAddress("other@example.com");
+
+        List<MailAccount> alternatives = RelayGroup.alternatives(Arrays.asList(a, b, same, other, null), a);
+        assertEquals(List.of(b), alternatives);
+        assertTrue(RelayGroup.alternatives(List.of(a, b), new MailAccount()).isEmpty());
+    }
+}
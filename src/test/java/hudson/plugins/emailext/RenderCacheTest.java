@@ -0,0 +1,49 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RenderCacheTest {
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private RenderCache.Content render(String text) {
+        renders.incrementAndGet();
+        return new RenderCache.Content(text, null, null);
+    }
+
+    @Test
+    void sameBodyIsRenderedOnce() {
+        RenderCache cache = new RenderCache();
+
+        RenderCache.Content first = cache.get("body\0text/plain\0Failure", () -> render("body"), () -> true);
+        assertSame(first, cache.get("body\0text/plain\0Failure", () -> render("body"), () -> true));
+        assertEquals(1, renders.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void differentTriggerNameIsRenderedAgain() {
+        RenderCache cache = new RenderCache();
+
+        cache.get("body\0text/plain\0Failure", () -> render("Failure"), () -> true);
+        RenderCache.Content success = cache.get("body\0text/plain\0Success", () -> render("Success"), () -> true);
+        assertEquals("Success", success.text());
+        assertEquals(2, renders.get());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void bodyWhichCannotBeCachedIsRenderedAgain() {
+        RenderCache cache = new RenderCache();
+
+        cache.get("${SCRIPT}\0text/plain\0Failure", () -> render("first"), () -> false);
+        RenderCache.Content second = cache.get("${SCRIPT}\0text/plain\0Failure", () -> render("second"), () -> false);
+        assertEquals("second", second.text());
+        assertEquals(2, renders.get());
+        assertEquals(0, cache.getHits());
+    }
+}
@@ -0,0 +1,82 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jakarta.mail.MessagingException;
+import java.net.ConnectException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class SmtpCircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        SmtpCircuitBreaker breaker = new SmtpCircuitBreaker(3, 60_000L, clock::get);
+
+        breaker.recordFailure("smtp:25");
+        breaker.recordFailure("smtp:25");
+        breaker.recordSuccess("smtp:25");
+        breaker.recordFailure("smtp:25");
+        breaker.recordFailure("smtp:25");
+        assertEquals(SmtpCircuitBreaker.State.CLOSED, breaker.getState("smtp:25"));
+        assertEquals(0, breaker.checkAvailable("smtp:25"));
+
+        breaker.recordFailure("smtp:25");
+        assertEquals(SmtpCircuitBreaker.State.OPEN, breaker.getState("smtp:25"));
+        assertTrue(breaker.checkAvailable("smtp:25") > 59_000L);
+        assertEquals(0, breaker.checkAvailable("other:25"));
+    }
+
+    @Test
+    void halfOpenProbeClosesCircuit() {
+        SmtpCircuitBreaker breaker = new SmtpCircuitBreaker(1, 60_000L, clock::get);
+        breaker.recordFailure("smtp:25");
+
+        advance(60_000L);
+        assertEquals(0, breaker.checkAvailable("smtp:25"));
+        assertEquals(SmtpCircuitBreaker.State.HALF_OPEN, breaker.getState("smtp:25"));
+        // only one probe at a time
+        assertTrue(breaker.checkAvailable("smtp:25") > 0);
+
+        breaker.recordSuccess("smtp:25");
+        assertEquals(SmtpCircuitBreaker.State.CLOSED, breaker.getState("smtp:25"));
+        assertEquals(0, breaker.checkAvailable("smtp:25"));
+    }
+
+    @Test
+    void failedProbeReopensCircuit() {
+        SmtpCircuitBreaker breaker = new SmtpCircuitBreaker(1, 60_000L, clock::get);
+        breaker.recordFailure("smtp:25");
+        advance(60_000L);
+        breaker.checkAvailable("smtp:25");
+
+        breaker.recordFailure("smtp:25");
+        assertEquals(SmtpCircuitBreaker.State.OPEN, breaker.getState("smtp:25"));
+        assertTrue(breaker.checkAvailable("smtp:25") > 59_000L);
+    }
+
+    @Test
+    void disabledWithZeroThreshold() {
+        SmtpCircuitBreaker breaker = new SmtpCircuitBreaker(0, 60_000L, clock::get);
+        breaker.recordFailure("smtp:25");
+        assertEquals(0, breaker.checkAvailable("smtp:25"));
+    }
+
+    @Test
+    void serverUnavailableClassification() {
+        MessagingException connect = new MessagingException("Couldn't connect to host", new ConnectException());
+        assertTrue(ExtendedEmailPublisher.isServerUnavailable(connect));
+        assertTrue(ExtendedEmailPublisher.isServerUnavailable(new MessagingException("421 Service not available")));
+        assertFalse(ExtendedEmailPublisher.isServerUnavailable(new MessagingException("550 No such user")));
+        assertFalse(ExtendedEmailPublisher.isServerUnavailable(new MessagingException("451 Greylisted")));
+    }
+}
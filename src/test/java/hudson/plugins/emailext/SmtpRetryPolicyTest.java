@@ -0,0 +1,57 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SmtpRetryPolicyTest {
+
+    private static SmtpRetryPolicy policy(double random) {
+        return new SmtpRetryPolicy(5, 1_000L, 10_000L, 60_000L, 30_000L, () -> random);
+    }
+
+    @Test
+    void delayGrowsExponentially() {
+        SmtpRetryPolicy policy = policy(0.5);
+
+        assertEquals(1_000L, policy.nextDelay(1, 0, null));
+        assertEquals(2_000L, policy.nextDelay(2, 0, null));
+        assertEquals(4_000L, policy.nextDelay(3, 0, null));
+        assertEquals(8_000L, policy.nextDelay(4, 0, null));
+    }
+
+    @Test
+    void delayIsCapped() {
+        SmtpRetryPolicy policy = new SmtpRetryPolicy(100, 1_000L, 10_000L, Long.MAX_VALUE, 0L, () -> 0.5);
+
+        assertEquals(10_000L, policy.nextDelay(10, 0, null));
+        assertEquals(10_000L, policy.nextDelay(80, 0, null));
+    }
+
+    @Test
+    void delayIsJittered() {
+        assertEquals(800L, policy(0.0).nextDelay(1, 0, null));
+        long max = policy(0.999).nextDelay(1, 0, null);
+        assertTrue(max > 1_000L && max <= 1_200L);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        assertEquals(-1L, policy(0.5).nextDelay(5, 0, null));
+    }
+
+    @Test
+    void givesUpAfterDeadline() {
+        assertEquals(-1L, policy(0.5).nextDelay(2, 59_000L, null));
+    }
+
+    @Test
+    void greylistingWaitsLonger() {
+        SmtpRetryPolicy policy = policy(0.5);
+
+        assertEquals(30_000L, policy.nextDelay(1, 0, 451));
+        assertEquals(30_000L, policy.nextDelay(1, 0, 421));
+        assertEquals(1_000L, policy.nextDelay(1, 0, 452));
+    }
+}
@@ -1,11 +1,14 @@
 package hudson.plugins.emailext;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.SendFailedException;
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.SocketException;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.Issue;
@@ -117,4 +120,30 @@ class SmtpRetryTest {
     void testIsTransientSmtpErrorWithNullCheck() throws Exception {
         assertFalse(callIsTransientSmtpError(null), "Should return false for null exception");
     }
+
+    @Test
+    void testGetSmtpErrorCodeFromNextException() {
+        MessagingException inner = new MessagingException("451 4.7.1 Greylisted, please try again later");
+        MessagingException outer = new MessagingException("Failed to send");
+        outer.setNextException(inner);
+
+        assertEquals(451, ExtendedEmailPublisher.getSmtpErrorCode(outer));
+        assertNull(ExtendedEmailPublisher.getSmtpErrorCode(new MessagingException("Generic messaging error")));
+    }
+
+    @Test
+    void testIsRetryableIsTheSameForAllMessagingExceptions() {
+        MessagingException reset = new MessagingException("Exception reading response", new SocketException("Reset"));
+        SendFailedException resetWhileSending = new SendFailedException("Send failed", new SocketException("Reset"));
+        MessagingException connect =
+                new MessagingException("Couldn't connect to host", new ConnectException("Refused"));
+
+        assertTrue(SmtpRetryPolicy.isRetryable(reset), "Socket errors should be retried");
+        assertTrue(SmtpRetryPolicy.isRetryable(resetWhileSending), "Socket errors should be retried");
+        assertTrue(SmtpRetryPolicy.isRetryable(connect), "Connection errors should be retried");
+        assertTrue(SmtpRetryPolicy.isRetryable(new SendFailedException("421 Service not available")));
+        assertTrue(SmtpRetryPolicy.isRetryable(new MessagingException("451 Greylisted")));
+        assertFalse(SmtpRetryPolicy.isRetryable(new SendFailedException("550 No such user")));
+        assertFalse(SmtpRetryPolicy.isRetryable(new MessagingException("Generic messaging error")));
+    }
 }
@@ -0,0 +1,123 @@
+package hudson.plugins.emailext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.URLName;
+import java.util.Properties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SmtpTransportPoolTest {
+
+    private Session session;
+
+    @BeforeEach
+    void setUp() {
+        session = Session.getInstance(new Properties());
+    }
+
+    private SmtpTransportPool.TransportFactory factory() {
+        return () -> {
+            Transport transport = new FakeTransport(session);
+            transport.connect();
+            return transport;
+        };
+    }
+
+    @Test
+    void releasedTransportIsReused() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(2, 60_000L, 100L);
+        Transport first = pool.borrow("key", factory());
+        pool.release(first);
+        Transport second = pool.borrow("key", factory());
+
+        assertSame(first, second);
+        assertEquals(1, pool.getStatistics().getCreated());
+        assertEquals(1, pool.getStatistics().getReused());
+    }
+
+    @Test
+    void invalidatedTransportIsClosed() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(2, 60_000L, 100L);
+        Transport first = pool.borrow("key", factory());
+        pool.invalidate(first);
+
+        assertFalse(first.isConnected());
+        assertNotSame(first, pool.borrow("key", factory()));
+    }
+
+    @Test
+    void disconnectedTransportIsNotReused() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(2, 60_000L, 100L);
+        Transport first = pool.borrow("key", factory());
+        pool.release(first);
+        first.close();
+
+        assertNotSame(first, pool.borrow("key", factory()));
+        assertEquals(1, pool.getStatistics().getEvicted());
+    }
+
+    @Test
+    void idleTransportsAreEvicted() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(2, -1L, 100L);
+        Transport first = pool.borrow("key", factory());
+        pool.release(first);
+
+        assertEquals(1, pool.evictIdle());
+        assertFalse(first.isConnected());
+        assertEquals(0, pool.getStatistics().getIdle());
+    }
+
+    @Test
+    void poolIsBoundedPerKey() throws Exception {
+        SmtpTransportPool pool = new SmtpTransportPool(1, 60_000L, 10L);
+        Transport first = pool.borrow("key", factory());
+
+        assertThrows(MessagingException.class, () -> pool.borrow("key", factory()));
+        assertTrue(pool.borrow("other", factory()).isConnected());
+
+        pool.release(first);
+        assertSame(first, pool.borrow("key", factory()));
+    }
+
+    @Test
+    void transportsAreNotSharedBetweenDifferentCredentials() {
+        MailAccount account = new MailAccount();
+        account.setSmtpHost("smtp.example.com");
+        account.setCredentialsId("smtp");
+
+        String folderA = SmtpTransportPool.partition(account, new PasswordAuthentication("jenkins", "secret-a"));
+        String folderB = SmtpTransportPool.partition(account, new PasswordAuthentication("jenkins", "secret-b"));
+
+        assertNotEquals(folderA, folderB);
+        assertEquals(folderA, SmtpTransportPool.partition(account, new PasswordAuthentication("jenkins", "secret-a")));
+        assertFalse(folderA.contains("secret-a"));
+        assertEquals(SmtpTransportPool.key(account), SmtpTransportPool.partition(account, null));
+    }
+
+    private static final class FakeTransport extends Transport {
+        FakeTransport(Session session) {
+            super(session, new URLName("smtp", "localhost", 25, null, null, null));
+        }
+
+        @Override
+        protected boolean protocolConnect(String host, int port, String user, String password) {
+            return true;
+        }
+
+        @Override
+        public void sendMessage(Message msg, Address[] addresses) {}
+    }
+}
@@ -2,6 +2,9 @@ package hudson.plugins.emailext.plugins;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ListMultimap;
@@ -13,12 +16,14 @@ import hudson.model.TaskListener;
 import hudson.plugins.emailext.ExtendedEmailPublisher;
 import hudson.plugins.emailext.ExtendedEmailPublisherContext;
 import hudson.plugins.emailext.ExtendedEmailPublisherDescriptor;
+import hudson.tasks.test.AbstractTestResultAction;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
 import org.junit.jupiter.api.BeforeEach;
@@ -171,6 +176,81 @@ class ContentBuilderTest {
                         Collections.singletonList(content)));
     }
 
+    @Test
+    void testTransformText_evaluatesTokensOncePerContext() throws Exception {
+        AtomicInteger evaluations = new AtomicInteger();
+        RuntimeContent content = new RuntimeContent("Hello, world") {
+            @Override
+            public String evaluate(
+                    AbstractBuild<?, ?> ab,
+                    TaskListener tl,
+                    String string,
+                    Map<String, String> map,
+                    ListMultimap<String, String> lm) {
+                evaluations.incrementAndGet();
+                return super.evaluate(ab, tl, string, map, lm);
+            }
+        };
+        ExtendedEmailPublisherContext context =
+                new ExtendedEmailPublisherContext(publisher, build, build.getWorkspace(), null, listener);
+        List<TokenMacro> macros = Collections.singletonList(content);
+
+        assertEquals("Hello, world Hello, world", ContentBuilder.transformText("${RUNTIME} $RUNTIME", context, macros));
+        assertEquals("Hello, world", ContentBuilder.transformText("${RUNTIME}", context, macros));
+        assertEquals(1, evaluations.get());
+
+        ExtendedEmailPublisherContext other =
+                new ExtendedEmailPublisherContext(publisher, build, build.getWorkspace(), null, listener);
+        ContentBuilder.transformText("${RUNTIME}", other, macros);
+        assertEquals(2, evaluations.get());
+    }
+
+    @Test
+    void testTransformText_evaluatesNonCacheableTokensEveryTime() {
+        CountingContent content = new CountingContent();
+        ExtendedEmailPublisherContext context =
+                new ExtendedEmailPublisherContext(publisher, build, build.getWorkspace(), null, listener);
+        List<TokenMacro> macros = Collections.singletonList(content);
+
+        assertEquals("1 2", ContentBuilder.transformText("${RUNTIME} $RUNTIME", context, macros));
+        assertEquals("3", ContentBuilder.transformText("${RUNTIME}", context, macros));
+    }
+
+    @Test
+    void testTransformText_evaluatesOwnExtensionTokensOncePerContext() {
+        ExtendedEmailPublisherContext context =
+                new ExtendedEmailPublisherContext(publisher, build, build.getWorkspace(), null, listener);
+
+        String text = ContentBuilder.transformText("${FAILED_TESTS}|${FAILED_TESTS}", context, null);
+        ContentBuilder.transformText("${FAILED_TESTS, maxTests=1}", context, null);
+
+        String[] values = text.split("\\|");
+        assertEquals(values[0], values[1]);
+        verify(build, times(2)).getAction(AbstractTestResultAction.class);
+    }
+
+    @Test
+    void testExpandDefaults_expandsPlaceholdersInValues() {
+        publisher.setDefaultContent("$DEFAULT_CONTENT (${PROJECT_DEFAULT_SUBJECT})");
+        assertEquals(
+                "Give me $4000 and I'll mail you a check for $40,000!"
+                        + " (How would you like your very own AWESOME-O 4000?) costs $5",
+                ContentBuilder.expandDefaults("$PROJECT_DEFAULT_CONTENT costs $5", publisher));
+    }
+
+    @Test
+    void testExpandDefaults_onlyLooksUpPresentPlaceholders() {
+        ExtendedEmailPublisher mockPublisher = mock(ExtendedEmailPublisher.class);
+        when(mockPublisher.getDefaultSubject()).thenReturn("Subject");
+
+        assertEquals(
+                "Build Subject, Subject",
+                ContentBuilder.expandDefaults(
+                        "Build $PROJECT_DEFAULT_SUBJECT, ${PROJECT_DEFAULT_SUBJECT}", mockPublisher));
+        verify(mockPublisher).getDefaultSubject();
+        verify(mockPublisher, never()).getDescriptor();
+    }
+
     private static class RuntimeContent extends TokenMacro {
 
         public static final String MACRO_NAME = "RUNTIME";
@@ -200,4 +280,24 @@ class ContentBuilderTest {
             return replacement;
         }
     }
+
+    @NonCacheableToken
+    private static class CountingContent extends RuntimeContent {
+
+        private int evaluations;
+
+        CountingContent() {
+            super("");
+        }
+
+        @Override
+        public String evaluate(
+                AbstractBuild<?, ?> ab,
+                TaskListener tl,
+                String string,
+                Map<String, String> map,
+                ListMultimap<String, String> lm) {
+            return String.valueOf(++evaluations);
+        }
+    }
 }
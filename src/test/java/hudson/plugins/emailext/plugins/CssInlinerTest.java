@@ -2,12 +2,15 @@ package hudson.plugins.emailext.plugins;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.sun.net.httpserver.HttpServer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.Issue;
 
@@ -90,6 +93,36 @@ class CssInlinerTest {
                 output);
     }
 
+    @Test
+    void testCachedStylesheetIsAppliedToEveryDocument() {
+        String style = "<style data-inline='true'>"
+                + "  td {padding: 1px;}"
+                + "  .failure {color: red;}"
+                + "  tr > td:first-child {font-weight: bold;}"
+                + "</style>";
+        Document first = Jsoup.parse(new CssInliner()
+                .process("<html><head>" + style + "</head><body><table><tr>"
+                        + "<td id='a' class='failure'>a</td><td id='b'>b</td>"
+                        + "</tr></table></body></html>"));
+        Document second = Jsoup.parse(new CssInliner()
+                .process("<html><head>" + style + "</head><body><table><tr>"
+                        + "<td id='c'>c</td><td id='d' class='failure'>d</td>"
+                        + "</tr></table></body></html>"));
+
+        assertStyle(first, "a", "padding: 1px;", "color: red;", "font-weight: bold;");
+        assertStyle(first, "b", "padding: 1px;");
+        assertStyle(second, "c", "padding: 1px;", "font-weight: bold;");
+        assertStyle(second, "d", "padding: 1px;", "color: red;");
+    }
+
+    private static void assertStyle(Document doc, String id, String... properties) {
+        String style = doc.getElementById(id).attr("style");
+        for (String property : properties) {
+            assertTrue(style.contains(property), style);
+        }
+        assertEquals(properties.length, style.split(":").length - 1, style);
+    }
+
     @Test
     void testEmailWithMixedCss() {
         String input = "<html>"
@@ -0,0 +1,57 @@
+package hudson.plugins.emailext.plugins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HtmlMinifierTest {
+
+    private static String minify(String input) {
+        return new HtmlPipeline(List.of(new CssInliner()::inline, new HtmlMinifier()::minify))
+                .process(input, false)
+                .html();
+    }
+
+    @Test
+    void stylesAreWrittenInTheirShortestForm() {
+        assertEquals("font-size:10px;color:red", HtmlMinifier.minifyStyle("font-size: 10px;; color: red; "));
+        assertEquals("padding:1px;color:blue", HtmlMinifier.minifyStyle("color: red; padding: 1px; COLOR: blue"));
+        assertEquals(
+                "color:red !important;padding:1px",
+                HtmlMinifier.minifyStyle("color: red !important; color: blue; padding: 1px"));
+        assertEquals(
+                "background:url(\"a;b.png\")", HtmlMinifier.minifyStyle(" background:url(\"a;b.png\") "));
+    }
+
+    @Test
+    void whitespaceAndCommentsAreRemoved() {
+        String output = minify("<html><head><!-- generated --></head><body>\n"
+                + "  <table>\n    <tr>\n      <td>Build   failed</td>\n    </tr>\n  </table>\n"
+                + "  <pre>  line 1\n  line 2</pre>\n"
+                + "</body></html>");
+
+        assertFalse(output.contains("generated"), output);
+        assertTrue(output.contains("<table><tbody><tr><td>Build failed</td></tr></tbody></table>"), output);
+        assertTrue(output.contains("<pre>  line 1\n  line 2</pre>"), output);
+    }
+
+    @Test
+    void conditionalCommentsAreKept() {
+        String output = minify("<html><head><!--[if mso]><style>td {padding: 0}</style><![endif]--></head>"
+                + "<body><p>Hello</p></body></html>");
+
+        assertTrue(output.contains("<!--[if mso]>"), output);
+    }
+
+    @Test
+    void inlinedStylesAreMinified() {
+        String output = minify("<html><head><style data-inline='true'>td {color: red; padding: 1px;}</style></head>"
+                + "<body><table><tr><td>a</td><td style='color: blue;'>b</td></tr></table></body></html>");
+
+        assertTrue(output.contains("<td style=\"color:red;padding:1px\">a</td>"), output);
+        assertTrue(output.contains("<td style=\"padding:1px;color:blue\">b</td>"), output);
+    }
+}
@@ -0,0 +1,53 @@
+package hudson.plugins.emailext.plugins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HtmlPipelineTest {
+
+    @Test
+    void unmodifiedDocumentIsReturnedAsIs() {
+        String input = "<html><head><title>Foo</title></head><body><b>This is a test</b><br/>Hello world</body></html>";
+
+        HtmlPipeline.Result result = new HtmlPipeline(List.of(new CssInliner()::inline)).process(input, true);
+
+        assertSame(input, result.html());
+        assertEquals("This is a test\nHello world", result.plainText());
+    }
+
+    @Test
+    void stagesAndPlainTextShareTheParsedDocument() {
+        String input = "<html><head><style data-inline='true'>b {color: red;}</style></head>"
+                + "<body><b style='font-size: 12px;'>Failed</b></body></html>";
+
+        HtmlPipeline.Result result = new HtmlPipeline(List.of(new CssInliner()::inline)).process(input, true);
+
+        assertEquals(
+                "<html><head></head><body><b style=\"color: red; font-size: 12px;\">Failed</b></body></html>",
+                result.html());
+        assertEquals("Failed", result.plainText());
+    }
+
+    @Test
+    void plainTextIsOnlyRenderedOnRequest() {
+        assertNull(new HtmlPipeline(List.of()).process("<p>Hello</p>", false).plainText());
+    }
+
+    @Test
+    void plainTextKeepsTheLayout() {
+        String input = "<html><head><title>Title</title><style>p {margin: 0}</style></head><body>"
+                + "<h1>Build failed</h1>"
+                + "<p>See <a href='http://jenkins/job/1/console'>console</a>.</p>"
+                + "<ul><li>one</li><li>two</li></ul>"
+                + "<table><tr><td>a</td><td>b</td></tr></table>"
+                + "</body></html>";
+
+        assertEquals(
+                "Build failed\n\nSee console <http://jenkins/job/1/console>.\n\n* one\n* two\n\na\tb",
+                new HtmlPipeline(List.of()).process(input, true).plainText());
+    }
+}
@@ -0,0 +1,67 @@
+package hudson.plugins.emailext.plugins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import hudson.model.FreeStyleBuild;
+import hudson.plugins.emailext.plugins.content.JellyScriptContent;
+import hudson.util.StreamTaskListener;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Compares the plain text part rendered by {@link PlainTextRenderer} with the one Jericho rendered before, see
+ * {@link CssInliner#stripHtml(String)}. The words and their order are the same; only the layout differs: Jericho
+ * wraps lines, indents lists and uses other bullets for nested lists.
+ */
+@WithJenkins
+class PlainTextRendererTest {
+
+    /**
+     * Bullets of (nested) list items.
+     */
+    private static final Set<String> DECORATIONS = Set.of("*", "o", "+", "#");
+
+    @Test
+    void bundledHtmlTemplateKeepsItsText(JenkinsRule j) throws Exception {
+        FreeStyleBuild build = j.buildAndAssertSuccess(j.createFreeStyleProject());
+        JellyScriptContent content = new JellyScriptContent();
+        content.template = "html";
+        String html = content.evaluate(
+                build, build.getWorkspace(), StreamTaskListener.fromStdout(), JellyScriptContent.MACRO_NAME);
+
+        String jericho = new CssInliner().stripHtml(html);
+        String rendered = new HtmlPipeline(List.of()).process(html, true).plainText();
+
+        assertEquals(words(jericho), words(rendered));
+    }
+
+    @Test
+    void layoutDiffersFromJericho() {
+        String html = "<html><body>"
+                + "<ul><li>one<ul><li>nested</li></ul></li></ul>"
+                + "<p><a href='http://jenkins/job/1/'>build</a></p>"
+                + "<table><tr><td>a</td><td>b</td></tr></table>"
+                + "</body></html>";
+
+        String rendered = new HtmlPipeline(List.of()).process(html, true).plainText();
+
+        assertEquals("* one\n\n* nested\n\nbuild <http://jenkins/job/1/>\n\na\tb", rendered);
+        assertEquals(words(new CssInliner().stripHtml(html)), words(rendered));
+    }
+
+    /**
+     * @return the words of a plain text part, without bullets, horizontal rules and link targets
+     */
+    private static List<String> words(String text) {
+        return Arrays.stream(text.replace('\u00A0', ' ')
+                        .replaceAll("<[^<>\\s]+>", " ")
+                        .strip()
+                        .split("\\s+"))
+                .filter(word -> !DECORATIONS.contains(word) && !word.matches("-+"))
+                .toList();
+    }
+}
@@ -1,6 +1,7 @@
 package hudson.plugins.emailext.plugins.content;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.Matchers.stringContainsInOrder;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -22,6 +23,7 @@ import hudson.model.Result;
 import hudson.model.TaskListener;
 import hudson.plugins.emailext.ExtendedEmailPublisher;
 import hudson.plugins.emailext.ExtendedEmailPublisherDescriptor;
+import hudson.plugins.emailext.groovy.sandbox.SimpleTemplateEngine;
 import hudson.plugins.emailext.plugins.recipients.ListRecipientProvider;
 import hudson.plugins.emailext.plugins.trigger.SuccessTrigger;
 import hudson.util.DescribableList;
@@ -105,6 +107,20 @@ class ScriptContentTest {
         assertEquals("HELLO WORLD!\n", scriptContent.evaluate(build, listener, ScriptContent.MACRO_NAME));
     }
 
+    @Test
+    void testTemplateRenderingIsAbortedAtMaximumSize() throws Exception {
+        int maxSize = SimpleTemplateEngine.MAX_EXPANDED_SIZE_BYTES;
+        SimpleTemplateEngine.MAX_EXPANDED_SIZE_BYTES = 5;
+        try {
+            scriptContent.template = "empty-groovy-template-on-classpath.template";
+            assertThat(
+                    scriptContent.evaluate(build, listener, ScriptContent.MACRO_NAME),
+                    startsWith("Template rendering aborted: Template output exceeds the maximum size of 5 bytes"));
+        } finally {
+            SimpleTemplateEngine.MAX_EXPANDED_SIZE_BYTES = maxSize;
+        }
+    }
+
     @Test
     @LocalData
     void testTemplateShouldBeLoadedFromTheClosestExistingFolderConfigInTheHierarchyUpToGlobalConfig() throws Exception {
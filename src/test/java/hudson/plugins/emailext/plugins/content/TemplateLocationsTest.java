@@ -0,0 +1,89 @@
+package hudson.plugins.emailext.plugins.content;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TemplateLocationsTest {
+
+    @TempDir
+    private File folder;
+
+    private final ClassLoader loader = getClass().getClassLoader();
+
+    @AfterEach
+    void tearDown() {
+        TemplateLocations.clear();
+    }
+
+    @Test
+    void bundledTemplateIsFoundOnTheClasspath() throws Exception {
+        TemplateLocations.Location location = TemplateLocations.locate(loader, folder, "html.jelly", ".jelly");
+
+        assertNotNull(location.resource());
+        assertSame(location, TemplateLocations.locate(loader, folder, "html.jelly", ".jelly"));
+    }
+
+    @Test
+    void missingTemplateIsCachedUntilItIsAdded() throws Exception {
+        TemplateLocations.Location missing = TemplateLocations.locate(loader, folder, "custom.template", ".template");
+        assertFalse(missing.found());
+        assertSame(missing, TemplateLocations.locate(loader, folder, "custom.template", ".template"));
+        FileNotFoundException e = assertThrows(
+                FileNotFoundException.class,
+                () -> TemplateLocations.open(loader, folder, "custom.template", ".template"));
+        assertEquals("custom.template.template", e.getMessage());
+
+        Path template = folder.toPath().resolve("custom.template");
+        Files.writeString(template, "hello");
+        // the directory stamp has to change for the new file to be noticed
+        assertTrue(folder.setLastModified(missing.lastModified() + 1000));
+
+        try (InputStream in = TemplateLocations.open(loader, folder, "custom.template", ".template")) {
+            assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void changedTemplateIsLocatedAgain() throws Exception {
+        File template = new File(folder, "custom.template");
+        Files.writeString(template.toPath(), "hello");
+        TemplateLocations.Location found = TemplateLocations.locate(loader, folder, "custom", ".template");
+        assertTrue(found.found());
+        assertEquals("custom.template", found.name());
+
+        assertTrue(template.setLastModified(found.lastModified() + 1000));
+        TemplateLocations.Location changed = TemplateLocations.locate(loader, folder, "custom", ".template");
+        assertEquals(found.lastModified() + 1000, changed.lastModified());
+    }
+
+    @Test
+    void templatesOutsideTheFolderAreNotFound() throws Exception {
+        Files.writeString(folder.toPath().resolve("secret.template"), "secret");
+        File subfolder = new File(folder, "templates");
+        assertTrue(subfolder.mkdir());
+
+        TemplateLocations.Location escaped =
+                TemplateLocations.locate(loader, subfolder, "../secret.template", ".template");
+        assertFalse(escaped.found());
+        assertNull(new TemplateLocations.ReadWorkspaceTemplate("../secret.template").invoke(subfolder, null));
+        assertArrayEquals(
+                "secret".getBytes(StandardCharsets.UTF_8),
+                new TemplateLocations.ReadWorkspaceTemplate("templates/../secret.template").invoke(folder, null));
+    }
+}
@@ -0,0 +1,40 @@
+package hudson.plugins.emailext.plugins.content;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import groovy.text.Template;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class TemplateWarmUpTest {
+
+    @Test
+    void compilesBundledAndFolderTemplates(JenkinsRule j) throws Exception {
+        File folder = AbstractEvalContent.scriptsFolder();
+        FileUtils.write(new File(folder, "sub/warm.template"), "2+2=${2+2}", StandardCharsets.UTF_8);
+        FileUtils.write(new File(folder, "warm.groovy"), "2 + 2", StandardCharsets.UTF_8);
+        FileUtils.write(new File(folder, "README.txt"), "not a template", StandardCharsets.UTF_8);
+
+        assertEquals(0, TemplateWarmUp.warmUp());
+
+        FileUtils.write(new File(folder, "broken.jelly"), "<j:jelly", StandardCharsets.UTF_8);
+        assertEquals(1, TemplateWarmUp.warmUp());
+    }
+
+    @Test
+    void compilesTemplateOnceForAllItsNames(JenkinsRule j) throws Exception {
+        String text = "once=${1}";
+        FileUtils.write(new File(AbstractEvalContent.scriptsFolder(), "once.template"), text, StandardCharsets.UTF_8);
+
+        assertEquals(0, TemplateWarmUp.warmUp());
+
+        Template template = ScriptContent.compileTemplate("once.template:approved", text, false);
+        assertSame(template, ScriptContent.compileTemplate("once:approved", text, false));
+    }
+}